@@ -0,0 +1,150 @@
+package mandelbrot;
+
+import util.VectorRectangle;
+
+/**
+ * Definiert eine Kalibrierung, die die Einstellungen anhand einer kurzen
+ * Probeberechnung für den aktuellen Rechner wählt.
+ * Dazu wird derselbe Bildausschnitt einmal mit kleinen und einmal mit großen
+ * Kacheln in einem einzigen Thread berechnet. Aus den beiden Laufzeiten
+ * ergeben sich die Rechenzeit je Pixel und ein Kern sowie der feste
+ * Verwaltungsaufwand je Kachel für Einreihung, Entnahme und Pufferverwaltung.
+ * Die Probeberechnungen verwenden einen eigenen BufferPool und ein eigenes
+ * CostModel, sodass deren gemeinsame Instanzen unberührt bleiben.
+ * Die Anzahl der Worker-Threads entspricht der Anzahl der Prozessoren, wobei
+ * angenommen wird, dass der Durchsatz mit ihr linear steigt. Die Kacheln
+ * werden so groß gewählt, dass bei der gegebenen Bildgröße jedem Thread
+ * mehrere Kacheln zukommen, jedoch mindestens so groß, dass der
+ * Verwaltungsaufwand gegenüber der Rechenzeit einer Kachel nicht ins Gewicht
+ * fällt. Auflösungsskalierung und Rahmendicke werden so gewählt, dass der
+ * Bildausschnitt bzw. der Rahmen um ihn herum in festen Zeitspannen berechnet
+ * werden können.
+ */
+public class Autotuner {
+    private static final int calibrationWidth = 320; // in Pixeln
+    private static final int calibrationHeight = 240; // in Pixeln
+    private static final int smallTiles = 20; // in Pixeln
+    private static final int largeTiles = 80; // in Pixeln
+    private static final int runs = 3; // Messungen je Kachelgröße
+    
+    private static final double overheadShare = 0.02; // höchster Anteil des
+        // Verwaltungsaufwandes an der Rechenzeit einer Kachel
+    private static final int tilesPerThread = 4; // angestrebte Anzahl
+        // sichtbarer Kacheln je Thread
+    private static final double screenTime = 0.5; // Zeitspanne für den
+        // Bildausschnitt in Sekunden
+    private static final double prefetchTime = 0.25; // Zeitspanne für den
+        // Vorausberechnungsrahmen in Sekunden
+    
+    public double pixelTime = 0; // Rechenzeit je Pixel und Kern in Nanosekunden
+    public double tileOverhead = 0; // Verwaltungsaufwand je Kachel in
+        // Nanosekunden
+    
+    /**
+     * Führt die Probeberechnung aus und wählt die Einstellungen.
+     * 
+     * @param width Breite des Bildausschnittes in Pixeln
+     * @param height Höhe des Bildausschnittes in Pixeln
+     * @param interval Bildausschnitt der Probeberechnung
+     * @param colorProjection zu verwendende Farbprojektion
+     * @param iterations zu verwendende Iterationstiefe
+     * @return gewählte Einstellungen
+     */
+    public Settings tune(int width, int height, VectorRectangle interval,
+        ColorProjection colorProjection, int iterations) {
+        calibrate(interval, colorProjection, iterations);
+        
+        Settings s = new Settings();
+        s.threads = Runtime.getRuntime().availableProcessors();
+        
+        double rate = s.threads * 1e9 / pixelTime; // Pixel je Sekunde
+        s.scaleup = rate * screenTime >= width * height * 4d ? 2 : 1;
+        
+        double pixels = width * height * s.scaleup * s.scaleup;
+        double balanced = Math.sqrt(pixels / (tilesPerThread * s.threads));
+        double amortized = Math.sqrt(tileOverhead / overheadShare / pixelTime);
+        int tileSize = round(Math.max(balanced, amortized), 20);
+        tileSize = Math.min(400, Math.max(40, tileSize));
+        s.tileSize = tileSize;
+        
+        double frame = rate * prefetchTime
+            / (2 * (width + height) * s.scaleup * s.scaleup);
+        s.frame = Math.min(200, Math.max((int)Math.ceil(tileSize / s.scaleup),
+            round(frame, 10)));
+        s.lowPriorityFrame = 3 * s.frame;
+        
+        s.normalize();
+        return s;
+    }
+    
+    private static int round(double value, int step) {
+        return (int)Math.round(value / step) * step;
+    }
+    
+    /**
+     * Bestimmt Rechenzeit je Pixel und Verwaltungsaufwand je Kachel aus den
+     * jeweils kürzesten Laufzeiten mehrerer Probeberechnungen mit kleinen
+     * und großen Kacheln. Eine erste Berechnung je Kachelgröße dient nur dem
+     * Aufwärmen und wird nicht gewertet.
+     */
+    private void calibrate(VectorRectangle interval,
+        ColorProjection colorProjection, int iterations) {
+        long[] small = { Long.MAX_VALUE, 0, 0 };
+        long[] large = { Long.MAX_VALUE, 0, 0 };
+        BufferPool pool = new BufferPool(256);
+        CostModel costModel = new CostModel();
+        
+        for (int i = 0; i <= runs; ++i) {
+            long[] s = measure(smallTiles, interval, colorProjection, iterations,
+                pool, costModel);
+            long[] l = measure(largeTiles, interval, colorProjection, iterations,
+                pool, costModel);
+            if (i == 0) continue;
+            if (s[0] < small[0]) small = s;
+            if (l[0] < large[0]) large = l;
+        }
+        
+        // t = pixelTime * pixels + tileOverhead * tiles
+        double ps = small[1] / (double)small[2];
+        double pl = large[1] / (double)large[2];
+        double ts = small[0] / (double)small[2];
+        double tl = large[0] / (double)large[2];
+        
+        tileOverhead = Math.max(0, (tl * ps - ts * pl) / (ps - pl));
+        pixelTime = Math.max(1, (large[0] - tileOverhead * large[2]) / large[1]);
+    }
+    
+    /**
+     * Berechnet den angegebenen Bildausschnitt mit der angegebenen
+     * Kachelgröße im aufrufenden Thread, wobei die Pixelbilder aus dem
+     * angegebenen Vorrat stammen und der Aufwand an das angegebene CostModel
+     * gemeldet wird.
+     * 
+     * @return Laufzeit in Nanosekunden, Anzahl der Pixel und Anzahl der
+     * Kacheln
+     */
+    private static long[] measure(int tileSize, VectorRectangle interval,
+        ColorProjection colorProjection, int iterations, BufferPool pool,
+        CostModel costModel) {
+        Scheduler scheduler = new Scheduler();
+        
+        long t0 = System.nanoTime();
+        TiledRendering tr = new TiledRendering(calibrationWidth,
+            calibrationHeight, tileSize, tileSize, 0, 0, 1, interval,
+            colorProjection, iterations, scheduler,
+            new TileStore(pool, costModel));
+        
+        try {
+            while (scheduler.size() > 0) scheduler.take().run();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        
+        long t = System.nanoTime() - t0;
+        TiledRendering.Grid g = tr.getGrid();
+        tr.release();
+        
+        long tiles = g.tilesU * g.tilesV;
+        return new long[] { t, tiles * tileSize * tileSize, tiles };
+    }
+}
@@ -0,0 +1,341 @@
+package mandelbrot;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import util.VectorRectangle;
+
+/**
+ * Definiert einen Hintergrundpuffer, in den die Kacheln der aktuellen Ebene
+ * einer Ansicht einmalig zusammengesetzt werden, sobald sie fertig sind.
+ * Der Puffer ist wie das Kachelgitter ein Ringpuffer: Die Kachel mit dem
+ * Index (tx, ty) liegt stets an der Stelle (tx mod tilesU, ty mod tilesV),
+ * sodass beim Verschieben des Gitters nur die neu belegten Stellen gezeichnet
+ * werden müssen. Ein Frame besteht daher unabhängig von der Anzahl der
+ * Kacheln aus höchstens vier transformierten Kopien des Puffers, je eine für
+ * jeden Teil des Bildausschnittes zwischen den Nahtstellen des Ringpuffers.
+ * Eine Stelle ist so groß, wie eine Kachel unmittelbar vor dem Wechsel auf
+ * die nächstfeinere Ebene auf dem Bildschirm erscheint, höchstens jedoch so
+ * groß wie die Kachel selbst.
+ * Sofern eine GraphicsConfiguration vorliegt, ist der Puffer ein vom
+ * Grafiksystem beschleunigtes VolatileImage. Geht dessen Inhalt verloren,
+ * wird er vollständig neu zusammengesetzt. Ansonsten wird ein BufferedImage
+ * verwendet.
+ * Fertig gewordene Kacheln werden nur bis zu einer Frist je Frame
+ * eingezeichnet, die übrigen im nächsten Frame. Nach einer Veränderung des
+ * Gitters werden jedoch stets alle Stellen aktualisiert, da sie sonst
+ * Kacheln zeigen würden, die nicht mehr im Gitter liegen.
+ * Stellen noch nicht fertiger Kacheln zeigen die Vorschau des
+ * TiledRenderings. Wird eine Kachel einer gröberen Ebene fertig, solange die
+ * Ebene unvollständig ist, werden die Stellen in ihrem Bereich erneut
+ * überprüft, sofern sie noch keine mindestens ebenso feine Vorschau zeigen,
+ * sodass sie stets die beste verfügbare Vorschau zeigen. Auch dies geschieht
+ * nur bis zur Frist des Frames.
+ * Fertig werdende Kacheln müssen mit tileFinished() gemeldet werden, was von
+ * beliebigen Threads aus geschehen kann. Der Aufrufer erfährt dabei, ob die
+ * Kachel als neue Vorschau vorgemerkt wurde, sodass er auch deren Bereich
+ * neu zeichnen lassen kann. Alle übrigen Methoden dürfen nur von einem Thread
+ * aufgerufen werden.
+ */
+public class BackBuffer {
+    private Image image = null;
+    
+    private volatile TiledRendering rendering = null; // zusammengesetzte Ebene
+    private TiledRendering.Grid grid = null; // zusammengesetzter Zustand des
+        // Gitters, null sofern alle Stellen überprüft werden müssen
+    private int slotWidth = 0; // in Pixeln
+    private int slotHeight = 0; // in Pixeln
+    private Rendering[][] slots = null; // je Stelle gezeichnete Kachel
+    private int[][] slotLevels = null; // je Stelle Ebene der gezeichneten
+        // Kachel bzw. Vorschau, Integer.MIN_VALUE für eine leere Kachel
+    
+    private final Queue<Rendering> finished
+        = new ConcurrentLinkedQueue<Rendering>(); // seit dem letzten Frame
+        // fertig gewordene Kacheln
+    private final Queue<Rendering> previews
+        = new ConcurrentLinkedQueue<Rendering>(); // seit dem letzten Frame
+        // fertig gewordene Kacheln gröberer Ebenen, die als Vorschau dienen
+        // können
+    
+    /**
+     * Merkt eine fertig gewordene Kachel zum Einzeichnen vor, sofern sie zur
+     * zusammengesetzten Ebene gehört oder als Vorschau für deren Kacheln
+     * dienen kann.
+     * 
+     * @param tile fertig gewordene Kachel
+     * @return true sofern die Kachel als neue Vorschau vorgemerkt wurde und
+     * ihr Bereich daher neu gezeichnet werden muss
+     */
+    public boolean tileFinished(Rendering tile) {
+        TiledRendering r = rendering;
+        if (r == null) return false;
+        
+        if (r.contains(tile)) finished.add(tile);
+        else if (tile.key.level < r.level
+            && tile.key.level >= r.level - TiledRendering.maxPreviewDepth
+            && tile.width == r.tileWidth && tile.height == r.tileHeight
+            && tile.colorProjection == r.colorProjection
+            && tile.iterations == r.iterations && r.getCompleteness() < 1) {
+            previews.add(tile);
+            return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Zeichnet den angegebenen Bildausschnitt der angegebenen Ebene, soweit er
+     * durch ihre Kacheln abgedeckt ist. Zuvor werden alle seit dem letzten
+     * Aufruf fertig gewordenen bzw. neu ins Gitter gekommenen Kacheln in den
+     * Puffer gezeichnet.
+     * 
+     * @param g das Graphics2D-Objekt, auf das gezeichnet werden soll
+     * @param gc GraphicsConfiguration des Ziels oder null
+     * @param tr zu zeichnende Ebene
+     * @param width Breite des zu zeichnenden Bildes in Pixeln
+     * @param height Höhe des zu zeichnenden Bildes in Pixeln
+     * @param interval zu zeichnender Bildausschnitt
+     * @param deadline Zeitpunkt im Sinne von System.nanoTime(), nach dem
+     * keine weiteren fertig gewordenen Kacheln bzw. Vorschauen eingezeichnet
+     * werden
+     * @return true sofern alle fertig gewordenen Kacheln und Vorschauen
+     * eingezeichnet wurden, false sofern sie teilweise auf den nächsten Frame
+     * verschoben wurden
+     */
+    public boolean draw(Graphics2D g, GraphicsConfiguration gc, TiledRendering tr,
+        int width, int height, VectorRectangle interval, long deadline) {
+        for (int i = 0; i < 3; ++i) {
+            compose(gc, tr, width, deadline);
+            blit(g, width, height, interval);
+            
+            if (!(image instanceof VolatileImage)
+                || !((VolatileImage)image).contentsLost()) break;
+            invalidate();
+        }
+        
+        return finished.isEmpty() && previews.isEmpty();
+    }
+    
+    /**
+     * Gibt den Puffer frei. Er wird beim nächsten Zeichnen neu angelegt.
+     */
+    public void flush() {
+        if (image != null) image.flush();
+        image = null;
+        rendering = null;
+        grid = null;
+        slots = null;
+        slotLevels = null;
+        finished.clear();
+        previews.clear();
+    }
+    
+    private void invalidate() {
+        grid = null;
+        for (Rendering[] column: slots) Arrays.fill(column, null);
+    }
+    
+    /*** composing ***/
+    
+    /**
+     * Passt den Puffer an die angegebene Ebene an und zeichnet alle Kacheln,
+     * deren Stelle nicht mehr aktuell ist, bzw. nach Ablauf der Frist
+     * mindestens eine der fertig gewordenen Kacheln und die Stellen im Bereich
+     * mindestens einer neuen Vorschau.
+     */
+    private void compose(GraphicsConfiguration gc, TiledRendering tr, int width,
+        long deadline) {
+        TiledRendering.Grid g = tr.getGrid();
+        double tileSize = TileKey.getTileSize(tr.level);
+        double f = Math.min(1, width * tileSize / tr.nativeSize.getX() / tr.tileWidth);
+        int w = Math.max(1, (int)Math.ceil(tr.tileWidth * f));
+        int h = Math.max(1, (int)Math.ceil(tr.tileHeight * f));
+        
+        if (tr != rendering || slots == null || slots.length != g.tilesU
+            || slots[0].length != g.tilesV || w != slotWidth || h != slotHeight) {
+            finished.clear();
+            previews.clear();
+            rendering = tr;
+            grid = null;
+            slotWidth = w;
+            slotHeight = h;
+            slots = new Rendering[g.tilesU][g.tilesV];
+            slotLevels = new int[g.tilesU][g.tilesV];
+        }
+        
+        validate(gc, g.tilesU * w, g.tilesV * h);
+        
+        Graphics2D bg = (Graphics2D)image.getGraphics();
+        bg.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+            RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        
+        if (g != grid) {
+            finished.clear();
+            previews.clear();
+            
+            for (int u = 0; u < g.tilesU; ++u) {
+                for (int v = 0; v < g.tilesV; ++v) draw(bg, g.getTile(u, v), true);
+            }
+            
+            grid = g;
+        }
+        else {
+            Rendering t;
+            while ((t = finished.poll()) != null) {
+                if (g.getTile(t.key.tx, t.key.ty) == t) draw(bg, t, false);
+                if (System.nanoTime() - deadline > 0) break;
+            }
+            
+            while ((t = previews.poll()) != null) {
+                updatePreviews(bg, g, t);
+                if (System.nanoTime() - deadline > 0) break;
+            }
+        }
+        
+        bg.dispose();
+    }
+    
+    /**
+     * Legt den Puffer in der angegebenen Größe an, sofern er nicht existiert,
+     * eine andere Größe hat oder zur GraphicsConfiguration inkompatibel
+     * geworden ist, und stellt einen verlorenen Inhalt wieder her.
+     */
+    private void validate(GraphicsConfiguration gc, int width, int height) {
+        if (image != null && image.getWidth(null) == width
+            && image.getHeight(null) == height
+            && (gc != null) == (image instanceof VolatileImage)) {
+            if (gc == null) return;
+            
+            int state = ((VolatileImage)image).validate(gc);
+            if (state == VolatileImage.IMAGE_OK) return;
+            if (state == VolatileImage.IMAGE_RESTORED) {
+                invalidate();
+                return;
+            }
+        }
+        
+        if (image != null) image.flush();
+        image = gc != null ? gc.createCompatibleVolatileImage(width, height)
+            : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        invalidate();
+    }
+    
+    /**
+     * Zeichnet die angegebene Kachel an ihre Stelle, sofern sie dort noch
+     * nicht fertig gezeichnet wurde. Zeigt die Stelle bereits eine Vorschau
+     * der nicht fertigen Kachel, wird diese nur auf Anforderung und nur dann
+     * neu gezeichnet, wenn inzwischen eine andere Vorschau verfügbar ist.
+     * 
+     * @param isPreviewUpdate true sofern die Vorschau überprüft werden soll
+     */
+    private void draw(Graphics2D bg, Rendering t, boolean isPreviewUpdate) {
+        int su = (int)Math.floorMod(t.key.tx, (long)slots.length);
+        int sv = (int)Math.floorMod(t.key.ty, (long)slots[0].length);
+        boolean isSame = slots[su][sv] == t;
+        
+        if (isSame && slotLevels[su][sv] == t.key.level) return;
+        
+        if (isSame && !t.isDone()) {
+            if (!isPreviewUpdate) return;
+            
+            Rendering p = rendering.getPreview(t);
+            int level = p == null ? Integer.MIN_VALUE : p.key.level;
+            if (slotLevels[su][sv] == level) return;
+        }
+        
+        slotLevels[su][sv] = rendering.drawTile(bg, t, su * slotWidth,
+            sv * slotHeight, slotWidth, slotHeight);
+        slots[su][sv] = t;
+    }
+    
+    /**
+     * Überprüft die Vorschau aller Stellen noch nicht fertiger Kacheln im
+     * Bereich der angegebenen Kachel einer gröberen Ebene, die noch keine
+     * mindestens ebenso feine Vorschau zeigen.
+     */
+    private void updatePreviews(Graphics2D bg, TiledRendering.Grid g,
+        Rendering ancestor) {
+        int shift = rendering.level - ancestor.key.level;
+        long tx0 = Math.max(ancestor.key.tx << shift, g.offsetU);
+        long tx1 = Math.min((ancestor.key.tx + 1) << shift, g.offsetU + g.tilesU);
+        long ty0 = Math.max(ancestor.key.ty << shift, g.offsetV);
+        long ty1 = Math.min((ancestor.key.ty + 1) << shift, g.offsetV + g.tilesV);
+        
+        for (long tx = tx0; tx < tx1; ++tx) {
+            for (long ty = ty0; ty < ty1; ++ty) {
+                Rendering t = g.getTile(tx, ty);
+                if (t == null || t.isDone()) continue;
+                
+                int su = (int)Math.floorMod(tx, (long)slots.length);
+                int sv = (int)Math.floorMod(ty, (long)slots[0].length);
+                if (slots[su][sv] == t
+                    && slotLevels[su][sv] >= ancestor.key.level) continue;
+                
+                draw(bg, t, true);
+            }
+        }
+    }
+    
+    /*** blitting ***/
+    
+    /**
+     * Kopiert den Puffer auf das angegebene Graphics2D-Objekt. Der
+     * Bildausschnitt wird dazu an den Nahtstellen des Ringpuffers in höchstens
+     * vier Teile zerlegt, die jeweils mit einer Transformation des gesamten
+     * Puffers, beschnitten auf den Teil, gezeichnet werden.
+     */
+    private void blit(Graphics2D g, int width, int height,
+        VectorRectangle interval) {
+        TiledRendering.Grid grid = this.grid;
+        double tileSize = TileKey.getTileSize(rendering.level);
+        
+        // Bildausschnitt in Kachelindizes und Pixel je Kachel
+        double left = interval.getLeft() / tileSize;
+        double top = -interval.getTop() / tileSize;
+        double sx = width / interval.getWidth() * tileSize;
+        double sy = height / interval.getHeight() * tileSize;
+        
+        double u0 = Math.max(left, grid.offsetU);
+        double u1 = Math.min(left + width / sx, grid.offsetU + grid.tilesU);
+        double v0 = Math.max(top, grid.offsetV);
+        double v1 = Math.min(top + height / sy, grid.offsetV + grid.tilesV);
+        if (u0 >= u1 || v0 >= v1) return;
+        
+        long seamU = grid.offsetU + grid.tilesU
+            - Math.floorMod(grid.offsetU, (long)grid.tilesU);
+        long seamV = grid.offsetV + grid.tilesV
+            - Math.floorMod(grid.offsetV, (long)grid.tilesV);
+        
+        double[] us = { u0, Math.min(u1, seamU), Math.max(u0, seamU), u1 };
+        double[] vs = { v0, Math.min(v1, seamV), Math.max(v0, seamV), v1 };
+        long[] pus = { seamU - grid.tilesU, seamU };
+        long[] pvs = { seamV - grid.tilesV, seamV };
+        
+        for (int i = 0; i < 2; ++i) {
+            if (us[2 * i] >= us[2 * i + 1]) continue;
+            int x0 = (int)Math.round((us[2 * i] - left) * sx);
+            int x1 = (int)Math.round((us[2 * i + 1] - left) * sx);
+            
+            for (int j = 0; j < 2; ++j) {
+                if (vs[2 * j] >= vs[2 * j + 1]) continue;
+                int y0 = (int)Math.round((vs[2 * j] - top) * sy);
+                int y1 = (int)Math.round((vs[2 * j + 1] - top) * sy);
+                
+                Graphics2D g2 = (Graphics2D)g.create();
+                g2.clipRect(x0, y0, x1 - x0, y1 - y0);
+                g2.drawImage(image, new AffineTransform(
+                    sx / slotWidth, 0, 0, sy / slotHeight,
+                    (pus[i] - left) * sx, (pvs[j] - top) * sy
+                ), null);
+                g2.dispose();
+            }
+        }
+    }
+}
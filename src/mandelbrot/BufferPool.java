@@ -0,0 +1,169 @@
+package mandelbrot;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+
+/**
+ * Definiert einen beschränkten Vorrat wiederverwendbarer Pixelbilder für
+ * Kacheln. Freigegebene oder verdrängte Kacheln geben ihr Pixelbild zurück,
+ * neu berechnete Kacheln entnehmen es, sodass beim Verschieben und Zoomen
+ * nach einer Anlaufphase keine neuen Pixelbilder mehr angelegt werden müssen.
+ * Die Zähler geben Auskunft darüber, wie viele Pixelbilder angelegt,
+ * wiederverwendet und zurückgegeben wurden und wie viel Speicher die
+ * insgesamt existierenden Pixelbilder belegen.
+ */
+public class BufferPool {
+    public static final BufferPool instance = new BufferPool(256);
+    
+    private final ArrayDeque<BufferedImage> buffers
+        = new ArrayDeque<BufferedImage>();
+    
+    private int capacity;
+    
+    private long allocations = 0;
+    private long reuses = 0;
+    private long releases = 0;
+    private long discards = 0;
+    private long bytes = 0;
+    
+    private int[] zeroes = new int[0];
+    
+    /**
+     * Erzeugt einen neuen Vorrat.
+     * 
+     * @param capacity maximale Anzahl vorrätig gehaltener Pixelbilder
+     */
+    public BufferPool(int capacity) {
+        this.capacity = capacity;
+    }
+    
+    /**
+     * Setzt die maximale Anzahl vorrätig gehaltener Pixelbilder.
+     * 
+     * @param capacity maximale Anzahl vorrätig gehaltener Pixelbilder
+     */
+    public synchronized void setCapacity(int capacity) {
+        this.capacity = capacity;
+        while (buffers.size() > capacity) discard(buffers.poll());
+    }
+    
+    /**
+     * Entnimmt ein schwarzes Pixelbild der angegebenen Größe oder legt ein
+     * neues an, falls keines vorrätig ist.
+     * 
+     * @param width Breite in Pixeln
+     * @param height Höhe in Pixeln
+     * @return Pixelbild
+     */
+    public BufferedImage take(int width, int height) {
+        BufferedImage image;
+        
+        synchronized (this) {
+            image = buffers.poll();
+            
+            while (image != null && (image.getWidth() != width
+                || image.getHeight() != height)) {
+                discard(image);
+                image = buffers.poll();
+            }
+            
+            if (image == null) {
+                ++allocations;
+                bytes += 4L * width * height;
+            }
+            else ++reuses;
+        }
+        
+        if (image == null) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        
+        clear(image);
+        return image;
+    }
+    
+    /**
+     * Gibt ein nicht mehr benötigtes Pixelbild zurück.
+     * 
+     * @param image Pixelbild, das nach dem Aufruf nicht mehr verwendet werden
+     * darf
+     */
+    public synchronized void give(BufferedImage image) {
+        ++releases;
+        
+        if (buffers.size() < capacity) buffers.push(image);
+        else discard(image);
+    }
+    
+    /**
+     * Verwirft alle vorrätigen Pixelbilder, um Speicher freizugeben.
+     */
+    public synchronized void trim() {
+        while (!buffers.isEmpty()) discard(buffers.poll());
+    }
+    
+    private void discard(BufferedImage image) {
+        ++discards;
+        bytes -= 4L * image.getWidth() * image.getHeight();
+    }
+    
+    private void clear(BufferedImage image) {
+        int[] z;
+        
+        synchronized (this) {
+            if (zeroes.length < image.getWidth() * image.getHeight()) {
+                zeroes = new int[image.getWidth() * image.getHeight()];
+            }
+            z = zeroes;
+        }
+        
+        image.getRaster().setDataElements(0, 0,
+            image.getWidth(), image.getHeight(), z);
+    }
+    
+    /*** statistics ***/
+    
+    /**
+     * @return Anzahl der bisher neu angelegten Pixelbilder
+     */
+    public synchronized long getAllocations() {
+        return allocations;
+    }
+    
+    /**
+     * @return Anzahl der bisher wiederverwendeten Pixelbilder
+     */
+    public synchronized long getReuses() {
+        return reuses;
+    }
+    
+    /**
+     * @return Anzahl der bisher zurückgegebenen Pixelbilder
+     */
+    public synchronized long getReleases() {
+        return releases;
+    }
+    
+    /**
+     * @return Anzahl der bisher verworfenen Pixelbilder, die wegen voller
+     * Kapazität oder unpassender Größe nicht vorrätig gehalten wurden
+     */
+    public synchronized long getDiscards() {
+        return discards;
+    }
+    
+    /**
+     * @return Speicherbedarf aller aktuell verwendeten oder vorrätigen
+     * Pixelbilder in Bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+    
+    /**
+     * @return Anzahl der aktuell vorrätigen Pixelbilder
+     */
+    public synchronized int getPooled() {
+        return buffers.size();
+    }
+}
@@ -0,0 +1,96 @@
+package mandelbrot;
+
+/**
+ * Sagt den Rechenaufwand noch nicht berechneter Kacheln in Iterationen
+ * voraus, sodass der Scheduler unter Kacheln gleicher Priorität die
+ * aufwendigsten zuerst vergeben kann und am Ende einer Berechnung keine
+ * einzelne lange Kachel übrig bleibt.
+ * Die Vorhersage stützt sich vorrangig auf den gemessenen Aufwand des
+ * entsprechenden Viertels der Elternkachel der nächstgröberen Ebene und
+ * andernfalls auf den mittleren Aufwand bereits fertig berechneter
+ * Nachbarkacheln. Ist beides nicht verfügbar, bleibt der Aufwand unbekannt.
+ * Nach der Berechnung einer Kachel wird die Vorhersage mit dem tatsächlichen
+ * Aufwand verglichen, sodass die Güte der Vorhersagen abgelesen werden kann.
+ */
+public class CostModel {
+    public static final CostModel instance = new CostModel();
+    
+    private long predictions = 0;
+    private double relativeError = 0; // Summe der relativen Abweichungen
+    private double bias = 0; // Summe der logarithmischen Abweichungen
+    
+    /**
+     * Sagt den Aufwand der angegebenen Kachel voraus.
+     * 
+     * @param grid TiledRendering, zu dem die Kachel gehört
+     * @param t Kachel
+     * @return Aufwand in Iterationen oder -1, sofern er unbekannt ist
+     */
+    public long estimate(TiledRendering grid, Rendering t) {
+        TiledRendering coarser = grid.coarser;
+        
+        if (coarser != null && coarser.level == grid.level - 1
+            && coarser.iterations == grid.iterations) {
+            TileKey p = t.key.getParent();
+            Rendering parent = coarser.getTile(p.tx, p.ty);
+            
+            if (parent != null && parent.isDone() && parent.getCost() > 0) {
+                return 4 * parent.getQuadrantCost(
+                    (int)(t.key.tx & 1) + 2 * (int)(t.key.ty & 1));
+            }
+        }
+        
+        long sum = 0;
+        int n = 0;
+        
+        for (long tx = t.key.tx - 1; tx <= t.key.tx + 1; ++tx) {
+            for (long ty = t.key.ty - 1; ty <= t.key.ty + 1; ++ty) {
+                Rendering r = grid.getTile(tx, ty);
+                
+                if (r != null && r != t && r.isDone() && r.getCost() > 0) {
+                    sum += r.getCost();
+                    ++n;
+                }
+            }
+        }
+        
+        return n == 0 ? -1 : sum / n;
+    }
+    
+    /**
+     * Vergleicht eine Vorhersage mit dem tatsächlichen Aufwand.
+     * 
+     * @param estimate vorhergesagter Aufwand in Iterationen oder -1
+     * @param cost tatsächlicher Aufwand in Iterationen
+     */
+    public synchronized void record(long estimate, long cost) {
+        if (estimate < 0 || cost <= 0) return;
+        
+        ++predictions;
+        relativeError += Math.abs(estimate - cost) / (double)cost;
+        bias += Math.log(Math.max(1, estimate) / (double)cost);
+    }
+    
+    /**
+     * @return Anzahl der bewerteten Vorhersagen
+     */
+    public synchronized long getPredictions() {
+        return predictions;
+    }
+    
+    /**
+     * @return mittlere relative Abweichung der Vorhersagen vom
+     * tatsächlichen Aufwand
+     */
+    public synchronized double getMeanError() {
+        return predictions == 0 ? 0 : relativeError / predictions;
+    }
+    
+    /**
+     * @return geometrisches Mittel des Verhältnisses von Vorhersage zu
+     * tatsächlichem Aufwand, wobei Werte über 1 eine Überschätzung bedeuten
+     */
+    public synchronized double getBias() {
+        return predictions == 0 ? 1 : Math.exp(bias / predictions);
+    }
+}
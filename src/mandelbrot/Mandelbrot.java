@@ -1,5 +1,12 @@
 package mandelbrot;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import javax.swing.JFrame;
 import mandelbrot.view.MandelbrotWindow;
 import util.Vector;
@@ -8,6 +15,13 @@ import util.VectorRectangle;
 /**
  * Definiert die Hauptklasse, das Model des Programms, welches zur Laufzeit
  * genau einmal existiert.
+ * Es dient als gemeinsame Berechnungseinheit beliebig vieler Ansichten
+ * (Viewport) mit jeweils eigenem Bildausschnitt, die sich den Scheduler, die
+ * Worker-Threads, den TileStore und die Speicherregelung teilen. Der Aufbau
+ * und die Umstrukturierung der Kachelgitter aller Ansichten erfolgen
+ * nacheinander in einem eigenen Thread und die Ergebnisse werden als Ganzes
+ * veröffentlicht, sodass der Event-Dispatch-Thread stets nur den
+ * veröffentlichten Stand zeichnet.
  */
 public class Mandelbrot {
     public static void main(String[] args) {
@@ -16,21 +30,16 @@ public class Mandelbrot {
         mw.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
     }
     
-    public final int threads = 8;
-    
     public final VectorRectangle firstInterval = new VectorRectangle(
         new Vector(-2.2, -1.501),
         new Vector(0.8, 1.499)
     );
     
-    public final int frame = 100; // Vorausberechnungsrahmen in Pixeln
-    public final int lowPriorityFrame = 300; // in Pixeln
-    public final double scaleup = 2; // Auflösungsskalierungsfaktor
-    
-    public int width = 400;
-    public int height = 300;
+    public volatile Settings settings; // wird nur als Ganzes ersetzt
     
-    public double zoomFactor = 0.03; // 1 -/+ Intervallstreckungsfaktor je Frame
+    public double zoomFactor = 0.03; // 1 -/+ Intervallstreckungsfaktor je
+        // zoomPeriod
+    public static final double zoomPeriod = 0.1; // in Sekunden
     
     public int iterations = 100;
     
@@ -40,141 +49,322 @@ public class Mandelbrot {
     public int pointsAmount = 1000;
     public boolean linesNotPoints = false;
     
-    public Vector mousePoint = null; // Mauspunkt in der komplexen Zahlenebene
+    public final MemoryGovernor memoryGovernor
+        = new MemoryGovernor(MemoryGovernor.getDefaultBudget());
+    
+    public int levelsAbove = 1; // gröbere Ebenen zur Vorausberechnung
+    public int levelsBelow = 1; // feinere Ebenen zur Vorausberechnung
+    
+    public final Viewport viewport; // Ansicht des Hauptfensters
     
     /**
      * Erzeugt ein neues Mandelbrotdatenmodell.
      */
     public Mandelbrot() {
-        cache1 = new TiledRendering(width, height, frame, lowPriorityFrame, scaleup,
-            firstInterval, colorProjection, iterations);
-        buildCache2();
-        for (int i = 0; i < threads; ++i) new Thread(new Worker(i)).start();
+        viewport = new Viewport(this, firstInterval);
+        settings = loadSettings();
+        viewports.add(viewport);
+        activeViewport = viewport;
+        govern();
+        viewport.rebuild();
+        setThreads(settings.threads);
+        
+        regridder.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (govern()) rebuild();
+            }
+        }, governPeriod, governPeriod, TimeUnit.MILLISECONDS);
     }
     
-    /*** caching ***/
+    /*** settings ***/
     
-    public TiledRendering cache1;
-    public TiledRendering cache2;
+    /**
+     * Liest die gespeicherten Einstellungen bzw. wählt sie, sofern gewünscht,
+     * durch eine Probeberechnung des Autotuners und speichert sie für den
+     * nächsten Start.
+     * 
+     * @return zu verwendende Einstellungen
+     */
+    private Settings loadSettings() {
+        Settings s = new Settings();
+        boolean isStored = s.load(Settings.getFile());
+        
+        if (Settings.isAutotuneEnabled(isStored)) {
+            s = new Autotuner().tune(viewport.width, viewport.height,
+                firstInterval,
+                colorProjection, iterations);
+            s.save(Settings.getFile());
+        }
+        
+        return s;
+    }
     
     /**
-     * Baut den zweiten Cache auf Grund der aktuellen Datenlage neu auf.
+     * Übernimmt die angegebenen Einstellungen, speichert sie für den nächsten
+     * Start und baut den Cache im Hintergrund mit ihnen neu auf. Die Anzahl
+     * der Worker-Threads wird sofort angepasst.
+     * 
+     * @param settings neue Einstellungen, die kopiert werden
      */
-    public void buildCache2() {
-        cache2 = new TiledRendering(width, height, frame, lowPriorityFrame,
-            scaleup, cache1.interval.scale(1 / scaleup), colorProjection, iterations
-        );
+    public void apply(Settings settings) {
+        final Settings s = new Settings(settings);
+        s.normalize();
+        s.save(Settings.getFile());
+        setThreads(s.threads);
+        
+        regrid(new Runnable() {
+            @Override
+            public void run() {
+                Mandelbrot.this.settings = s;
+                govern();
+                rebuild();
+            }
+        });
     }
     
     /**
-     * Baut den gesamten Cache auf Grund der aktuellen Datenlage neu auf.
+     * Berechnet den Skalierungsfaktor eines Zoomvorganges, der über die
+     * angegebene Zeitspanne andauert, sodass die Zoomgeschwindigkeit nicht von
+     * der Bildwiederholrate abhängt.
+     * 
+     * @param isZoomingIn true beim Hereinzoomen, false beim Herauszoomen
+     * @param elapsed Dauer in Sekunden
+     * @return Skalierungsfaktor des Bildausschnittes
      */
-    public void refresh() {
-        cache1 = new TiledRendering(width, height, frame, lowPriorityFrame, scaleup,
-            cache1.interval, colorProjection, iterations);
-        buildCache2();
+    public double getZoomFactor(boolean isZoomingIn, double elapsed) {
+        return Math.pow(isZoomingIn ? 1 - zoomFactor : 1 + zoomFactor,
+            elapsed / zoomPeriod);
     }
     
-    /*** scheduling ***/
+    /*** viewports ***/
+    
+    private final List<Viewport> viewports = new CopyOnWriteArrayList<Viewport>();
+    private volatile Viewport activeViewport;
     
     /**
-     * Sucht die nächste zu berechnende Aufgabe und reserviert diese.
+     * Erzeugt eine neue Ansicht, deren Kachelgitter im Hintergrund aufgebaut
+     * werden.
      * 
-     * @param seed gleich verteilter Wert, der für jeden Thread unterschiedlich
-     * sein sollte, keine wesentliche Rolle spielt und nur zu
-     * Optimierungszwecken der Lastverteilung benötigt wird
-     * @return ein ausführbares Objekt oder null falls es nichts zu tun gibt
+     * @param interval anfänglicher Bildausschnitt
+     * @param width anfängliche Breite in Pixeln
+     * @param height anfängliche Höhe in Pixeln
+     * @return neue Ansicht
      */
-    public Runnable getWork(int seed) {
-        Runnable r;
+    public Viewport createViewport(VectorRectangle interval, int width,
+        int height) {
+        final Viewport v = new Viewport(this, interval);
+        v.width = width;
+        v.height = height;
+        viewports.add(v);
         
-        if ((r = cache1.getWork(seed, true)) != null) return r;
-        if ((r = cache2.getWork(seed, true)) != null) return r;
-        if ((r = cache1.getWork(seed, false)) != null) return r;
-        if ((r = cache2.getWork(seed, false)) != null) return r;
+        regrid(new Runnable() {
+            @Override
+            public void run() {
+                if (govern()) rebuild();
+                else v.rebuild();
+            }
+        });
         
-        return null;
+        return v;
     }
     
-    /*** working ***/
-    
-    class Worker implements Runnable {
-        private final int seed;
-        
-        public Worker(int seed) {
-            this.seed = seed;
-        }
+    /**
+     * Schließt die angegebene Ansicht und gibt ihre Kachelgitter frei.
+     * 
+     * @param v zu schließende Ansicht
+     */
+    public void closeViewport(final Viewport v) {
+        viewports.remove(v);
+        if (activeViewport == v) setActiveViewport(viewport);
         
-        @Override
-        public void run() {
-            while (true) {
-                Runnable r;
-                while ((r = getWork(seed)) != null) r.run();
-                
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException ex) {
-                }
+        regrid(new Runnable() {
+            @Override
+            public void run() {
+                v.release();
+                if (govern()) rebuild();
+                else scheduler.reschedule();
             }
-        }
+        });
     }
     
-    /*** dragging ***/
+    /**
+     * @return alle offenen Ansichten
+     */
+    public List<Viewport> getViewports() {
+        return viewports;
+    }
     
-    public Vector dragStart;
-    public VectorRectangle dragStartInterval;
+    /**
+     * @return die Ansicht, mit der der Benutzer zuletzt interagiert hat
+     */
+    public Viewport getActiveViewport() {
+        return activeViewport;
+    }
     
     /**
-     * Beginnt einen Verschiebevorgang an dem angegebenen Punkt.
+     * Macht die angegebene Ansicht zur aktiven Ansicht, deren Kacheln denen
+     * der übrigen Ansichten vorgezogen werden, und richtet die Prioritäten
+     * aller Ansichten neu aus.
      * 
-     * @param v Startpunkt der komplexen Zahlenebene des Verschiebevorganges
+     * @param v aktive Ansicht
      */
-    public void dragStart(Vector v) {
-        this.dragStart = v;
-        this.dragStartInterval = cache1.interval;
+    public void setActiveViewport(Viewport v) {
+        if (activeViewport == v) return;
+        activeViewport = v;
+        for (Viewport w: viewports) w.prioritize();
     }
     
+    /*** caching ***/
+    
+    public final TileStore store = new TileStore();
+    
+    private final ScheduledExecutorService regridder
+        = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "regridder");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    
     /**
-     * Führt die Verschiebung des aktuellen Verschiebevorganges bis zu dem
-     * angegebenen punkt durch. Diese Methode beendet den Verschiebevorgang
-     * nicht und kann immer wieder aufgerufen werden, um das Ziehen zu einem
-     * anderen Punkt auszuführen.
+     * Führt die angegebene Veränderung der Kachelgitter im Hintergrund aus.
+     * Alle Veränderungen werden nacheinander im selben Thread ausgeführt.
      * 
-     * @param v vorläufiger Endpunkt der komplexen Zahlen Ebene des Verschiebevorganges
-     * @param reverse Angabe, ob der Verschiebevorgang in umgekehrter Richtung
-     * ausgeführt werden soll
+     * @param r auszuführende Veränderung
      */
-    public void drag(Vector v, boolean reverse) {
-        Vector move = v.minus(dragStart);
-        cache1.interval = reverse ? dragStartInterval.minus(move) : dragStartInterval.plus(move);
-        cache1.recenter();
+    void regrid(Runnable r) {
+        regridder.execute(r);
     }
     
-    /*** zooming ***/
+    /**
+     * Baut die Kachelgitter aller Ansichten auf Grund der aktuellen
+     * Datenlage im Hintergrund neu auf. Bereits berechnete Kacheln, die
+     * weiterhin gültig sind, werden dabei aus dem TileStore übernommen.
+     */
+    public void refresh() {
+        regrid(new Runnable() {
+            @Override
+            public void run() {
+                govern();
+                rebuild();
+            }
+        });
+    }
+    
+    /**
+     * Baut die Kachelgitter aller Ansichten neu auf. Darf nur im Thread der
+     * Veränderungen aufgerufen werden.
+     */
+    void rebuild() {
+        for (Viewport v: viewports) v.rebuild();
+    }
+    
+    /*** memory ***/
+    
+    public static final int governPeriod = 1000; // Abstand, in dem die
+        // Speicherregelung anhand des gemessenen Bedarfs erneut wählt, in
+        // Millisekunden
     
     /**
-     * Zoomt den gewählten Bildausschnitt größer oder kleiner.
+     * @return die aufgrund der Speicherregelung aktuell zu verwendende
+     * Niedrigprioritätsrahmendicke in Pixeln
+     */
+    public int getLowPriorityFrame() {
+        return memoryGovernor.getStage() >= MemoryGovernor.SHRINK_LOW_PRIORITY_FRAME
+            ? 0 : settings.lowPriorityFrame;
+    }
+    
+    /**
+     * @return Angabe, ob weitere Ebenen außer der aktuellen aufgrund der
+     * Speicherregelung aktuell vorausberechnet werden sollen
+     */
+    public boolean isPrefetchEnabled() {
+        return memoryGovernor.getStage() < MemoryGovernor.DROP_PREFETCH;
+    }
+    
+    /**
+     * @return der aufgrund der Speicherregelung aktuell zu verwendende
+     * Auflösungsskalierungsfaktor
+     */
+    public double getScaleup() {
+        return memoryGovernor.getStage() >= MemoryGovernor.LOWER_SCALEUP
+            ? 1 : settings.scaleup;
+    }
+    
+    /**
+     * Wählt die Abbaustufe der Speicherregelung anhand des zu erwartenden
+     * Speicherbedarfs der Caches aller Ansichten bei ihrer aktuellen Größe
+     * und des gemessenen Speicherbedarfs aller verwendeten und vorrätigen
+     * Pixelbilder neu. Liegt letzterer nahe am Budget, werden zuerst die
+     * vorrätigen Pixelbilder verworfen. Wird neben jeder Umstrukturierung
+     * auch regelmäßig im Thread der Veränderungen aufgerufen.
      * 
-     * @param origin Punkt in den bzw. aus dem herein bzw. herausgezoomt werden soll
-     * @param factor anzuwendender Skalierungsfaktor des Bildausschnittes
+     * @return true sofern sich die Abbaustufe geändert hat
      */
-    public void zoom(Vector origin, double factor) {
-        cache1.interval = cache1.interval.scale(origin, factor);
+    boolean govern() {
+        Settings s = settings;
+        long full = 0;
+        long shrunk = 0;
+        long lowered = 0;
+        
+        for (Viewport v: viewports) {
+            full += TiledRendering.estimateBytes(v.width, v.height, s.tileSize,
+                s.tileSize, s.frame, s.lowPriorityFrame, s.scaleup);
+            shrunk += TiledRendering.estimateBytes(v.width, v.height, s.tileSize,
+                s.tileSize, s.frame, 0, s.scaleup);
+            lowered += TiledRendering.estimateBytes(v.width, v.height, s.tileSize,
+                s.tileSize, s.frame, 0, 1);
+        }
+        
+        int levels = 1 + levelsAbove + levelsBelow;
         
-        if (cache1.interval.getWidth() < cache1.nativeSize.getX()
-            || cache1.interval.getHeight() < cache1.nativeSize.getY()) {
-            VectorRectangle cr = cache1.interval;
-            cache1 = cache2;
-            cache1.interval = cr;
-            cache1.recenter();
-            buildCache2();
+        if (memoryGovernor.isCritical(BufferPool.instance.getBytes())) {
+            BufferPool.instance.trim();
         }
         
-        if (cache1.interval.getWidth() > cache1.totalInterval.getSize().multiply(0.9).getX()
-            || cache1.interval.getHeight() > cache1.totalInterval.getSize().multiply(0.9).getY()) {
-            cache1 = new TiledRendering(width, height, frame, lowPriorityFrame, scaleup,
-                cache1.interval, colorProjection, iterations);
-            buildCache2();
+        return memoryGovernor.update(new long[] {
+            levels * full, levels * shrunk, shrunk, lowered
+        }, BufferPool.instance.getBytes());
+    }
+    
+    /*** working ***/
+    
+    public final Scheduler scheduler = new Scheduler();
+    
+    private final List<Thread> workers = new ArrayList<Thread>();
+    
+    /**
+     * Passt die Anzahl der Worker-Threads an. Überzählige Threads werden
+     * unterbrochen und beenden sich nach ihrer laufenden Kachel.
+     * 
+     * @param threads gewünschte Anzahl der Worker-Threads
+     */
+    private synchronized void setThreads(int threads) {
+        while (workers.size() < threads) {
+            Thread t = new Thread(new Worker(), "worker");
+            workers.add(t);
+            t.start();
+        }
+        
+        while (workers.size() > threads) {
+            workers.remove(workers.size() - 1).interrupt();
+        }
+    }
+    
+    class Worker implements Runnable {
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    scheduler.take().run();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
         }
     }
 }
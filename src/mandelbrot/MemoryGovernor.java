@@ -0,0 +1,127 @@
+package mandelbrot;
+
+/**
+ * Definiert eine Regelung, die den Speicherbedarf der Caches innerhalb eines
+ * festgelegten Budgets hält.
+ * Dazu wird für jede Abbaustufe der zu erwartende Speicherbedarf angegeben
+ * und die geringste Stufe gewählt, deren Bedarf in das Budget passt. Die
+ * Stufen bauen der Reihe nach den Niedrigprioritätsrahmen, die Ebenen zur
+ * Vorausberechnung und schließlich die Auflösungsskalierung ab. Zusätzlich
+ * wird der tatsächlich gemessene Speicherbedarf berücksichtigt: Liegt er
+ * nahe am Budget, wird je Aufruf um eine weitere Stufe abgebaut, auch wenn
+ * die Schätzung noch passt. Eine geringere Stufe wird erst wieder gewählt,
+ * wenn ihr zu erwartender und der gemessene Bedarf deutlich unter dem Budget
+ * liegen, sodass die Regelung nicht zwischen zwei Stufen hin und her
+ * springt.
+ */
+public class MemoryGovernor {
+    public static final int FULL = 0;
+    public static final int SHRINK_LOW_PRIORITY_FRAME = 1;
+    public static final int DROP_PREFETCH = 2;
+    public static final int LOWER_SCALEUP = 3;
+    
+    public static final String[] stageNames = {
+        "full",
+        "no low priority frame",
+        "no prefetch levels",
+        "lower scaleup"
+    };
+    
+    private static final double degradeThreshold = 0.9;
+    private static final double restoreThreshold = 0.7;
+    
+    /**
+     * Ermittelt das Standardbudget. Dieses kann mit der Systemeigenschaft
+     * mandelbrot.memoryBudget in Megabytes angegeben werden und beträgt
+     * ansonsten die Hälfte des maximal verfügbaren Heaps. Ungültige oder
+     * nicht positive Angaben werden ignoriert.
+     * 
+     * @return Budget in Bytes
+     */
+    public static long getDefaultBudget() {
+        String s = System.getProperty("mandelbrot.memoryBudget");
+        long mb = 0;
+        
+        if (s != null) {
+            try {
+                mb = Long.parseLong(s.trim());
+            } catch (NumberFormatException ex) {
+                mb = 0;
+            }
+        }
+        
+        if (mb > 0 && mb <= Long.MAX_VALUE / (1024 * 1024)) return mb * 1024 * 1024;
+        
+        long max = Runtime.getRuntime().maxMemory();
+        if (max == Long.MAX_VALUE) return 512L * 1024 * 1024;
+        return max / 2;
+    }
+    
+    private long budget;
+    private int stage = FULL;
+    
+    /**
+     * Erzeugt eine neue Regelung.
+     * 
+     * @param budget Budget in Bytes
+     */
+    public MemoryGovernor(long budget) {
+        this.budget = budget;
+    }
+    
+    /**
+     * @return Budget in Bytes
+     */
+    public synchronized long getBudget() {
+        return budget;
+    }
+    
+    /**
+     * Setzt das Budget. Es wird erst beim nächsten Aufruf von update()
+     * berücksichtigt.
+     * 
+     * @param budget Budget in Bytes
+     */
+    public synchronized void setBudget(long budget) {
+        this.budget = budget;
+    }
+    
+    /**
+     * @return aktuelle Abbaustufe
+     */
+    public synchronized int getStage() {
+        return stage;
+    }
+    
+    /**
+     * @param bytes gemessener Speicherbedarf in Bytes
+     * @return true sofern der Speicherbedarf nahe am Budget liegt
+     */
+    public synchronized boolean isCritical(long bytes) {
+        return bytes > budget * degradeThreshold;
+    }
+    
+    /**
+     * Wählt die Abbaustufe anhand des zu erwartenden und des gemessenen
+     * Speicherbedarfs neu.
+     * 
+     * @param estimates zu erwartender Speicherbedarf in Bytes für jede
+     * Abbaustufe, beginnend mit FULL
+     * @param measured aktuell gemessener Speicherbedarf in Bytes
+     * @return true sofern sich die Abbaustufe geändert hat
+     */
+    public synchronized boolean update(long[] estimates, long measured) {
+        int s = stage;
+        
+        while (s < estimates.length - 1
+            && estimates[s] > budget * degradeThreshold) ++s;
+        if (s == stage && s < estimates.length - 1
+            && measured > budget * degradeThreshold) ++s;
+        while (s > 0 && estimates[s - 1] <= budget * restoreThreshold
+            && measured <= budget * restoreThreshold) --s;
+        
+        boolean changed = s != stage;
+        stage = s;
+        return changed;
+    }
+}
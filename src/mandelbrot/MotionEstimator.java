@@ -0,0 +1,93 @@
+package mandelbrot;
+
+import util.Vector;
+
+/**
+ * Schätzt anhand der Verschiebe- und Zoomvorgänge, in welche Richtung sich
+ * der Bildausschnitt bewegt, sodass die Vorausberechnung auf die Bereiche
+ * ausgerichtet werden kann, in die er sich voraussichtlich bewegen wird.
+ * Geschwindigkeit und Zoomrate werden als exponentiell gleitende
+ * Mittelwerte geführt und klingen ab, sobald keine weiteren Bewegungen
+ * gemeldet werden.
+ */
+public class MotionEstimator {
+    public static final double timeConstant = 0.3; // in Sekunden
+    public static final double lookahead = 0.5; // Vorausschau in Sekunden
+    public static final double zoomThreshold = 0.1; // minimale Zoomrate
+    
+    private Vector velocity = new Vector(0, 0); // je Sekunde
+    private long lastMove = 0;
+    
+    private double zoomRate = 0; // Logarithmus des Faktors je Sekunde
+    private Vector zoomOrigin = null;
+    private long lastZoom = 0;
+    
+    /**
+     * Meldet eine Verschiebung des Bildausschnittes.
+     * 
+     * @param delta Verschiebung des Mittelpunktes in der komplexen Zahlenebene
+     */
+    public synchronized void move(Vector delta) {
+        long now = System.nanoTime();
+        double dt = getInterval(lastMove, now);
+        lastMove = now;
+        
+        double a = 1 - Math.exp(-dt / timeConstant);
+        velocity = velocity.multiply(1 - a).plus(delta.multiply(a / dt));
+    }
+    
+    /**
+     * Meldet einen Zoomvorgang.
+     * 
+     * @param origin Punkt in den bzw. aus dem gezoomt wurde
+     * @param factor angewendeter Skalierungsfaktor des Bildausschnittes
+     */
+    public synchronized void zoom(Vector origin, double factor) {
+        long now = System.nanoTime();
+        double dt = getInterval(lastZoom, now);
+        lastZoom = now;
+        
+        double a = 1 - Math.exp(-dt / timeConstant);
+        zoomRate = zoomRate * (1 - a) + Math.log(factor) * a / dt;
+        zoomOrigin = origin;
+    }
+    
+    private static double getInterval(long last, long now) {
+        return last == 0 ? 0.04 : Math.max(0.001, Math.min(0.2, (now - last) / 1e9));
+    }
+    
+    private static double getDecay(long last) {
+        return Math.exp(-(System.nanoTime() - last) / 1e9 / timeConstant);
+    }
+    
+    /**
+     * @return geschätzte Geschwindigkeit des Mittelpunktes je Sekunde
+     */
+    public synchronized Vector getVelocity() {
+        return lastMove == 0 ? velocity : velocity.multiply(getDecay(lastMove));
+    }
+    
+    /**
+     * @return voraussichtliche Verschiebung des Mittelpunktes innerhalb der
+     * Vorausschau
+     */
+    public Vector getLead() {
+        return getVelocity().multiply(lookahead);
+    }
+    
+    /**
+     * @return geschätzter Logarithmus des Skalierungsfaktors je Sekunde,
+     * negativ beim Hereinzoomen
+     */
+    public synchronized double getZoomRate() {
+        return lastZoom == 0 ? 0 : zoomRate * getDecay(lastZoom);
+    }
+    
+    /**
+     * @return zuletzt verwendeter Zoompunkt oder null, sofern noch nicht
+     * gezoomt wurde
+     */
+    public synchronized Vector getZoomOrigin() {
+        return zoomOrigin;
+    }
+}
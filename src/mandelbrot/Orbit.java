@@ -0,0 +1,150 @@
+package mandelbrot;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import util.Vector;
+import util.VectorRectangle;
+
+/**
+ * Beschreibt die ersten Glieder der Mandelbrot-Folge eines Punktes, die zur
+ * Darstellung als Punkte oder Linienzug über das Bild gelegt werden.
+ * Die Folgeglieder werden einmalig bei der Erzeugung in Arrays primitiver
+ * Werte berechnet. Ihre Bildschirmkoordinaten werden nur neu berechnet, wenn
+ * sich der Bildausschnitt oder die Bildgröße ändern, ihre Farben nur, wenn
+ * sich die Farbprojektion ändert. Die Berechnung endet vorzeitig, sobald die
+ * Folgeglieder nicht mehr als endliche Gleitkommazahlen darstellbar sind.
+ * Die Methode draw() darf nur von einem Thread aufgerufen werden.
+ */
+public class Orbit {
+    public final Vector characteristicValue;
+    public final int amount; // Anzahl der angeforderten Folgeglieder
+    
+    private final double[] x; // Realteile der Folgeglieder
+    private final double[] y; // Imaginärteile der Folgeglieder
+    private final int length; // Anzahl der berechneten Folgeglieder
+    
+    private VectorRectangle projectedInterval = null;
+    private int projectedWidth = 0;
+    private int projectedHeight = 0;
+    private int[] screenX = null;
+    private int[] screenY = null;
+    
+    private ColorProjection colorProjection = null;
+    private Color[] colors = null;
+    
+    /**
+     * Berechnet die angegebene Anzahl von Folgegliedern, beginnend mit dem
+     * ersten Glied nach dem Startwert 0.
+     * 
+     * @param characteristicValue charakteristischer Wert der Folge
+     * @param amount Anzahl der zu berechnenden Folgeglieder
+     */
+    public Orbit(Vector characteristicValue, int amount) {
+        this.characteristicValue = characteristicValue;
+        this.amount = amount;
+        this.x = new double[amount];
+        this.y = new double[amount];
+        
+        double cx = characteristicValue.getX();
+        double cy = characteristicValue.getY();
+        double zx = 0;
+        double zy = 0;
+        int n = 0;
+        
+        while (n < amount) {
+            double t = zx * zx - zy * zy + cx;
+            zy = 2 * zx * zy + cy;
+            zx = t;
+            if (Double.isNaN(zx) || Double.isInfinite(zx)
+                || Double.isNaN(zy) || Double.isInfinite(zy)) break;
+            
+            x[n] = zx;
+            y[n] = zy;
+            ++n;
+        }
+        
+        this.length = n;
+    }
+    
+    /**
+     * @param characteristicValue charakteristischer Wert
+     * @param amount Anzahl der Folgeglieder
+     * @return true sofern diese Folge mit den angegebenen Parametern berechnet
+     * wurde
+     */
+    public boolean isOf(Vector characteristicValue, int amount) {
+        return this.amount == amount
+            && this.characteristicValue.getX() == characteristicValue.getX()
+            && this.characteristicValue.getY() == characteristicValue.getY();
+    }
+    
+    /**
+     * Zeichnet die Folge in den angegebenen Bildausschnitt.
+     * 
+     * @param g das Graphics2D-Objekt, auf das gezeichnet werden soll
+     * @param width Breite des Bildes in Pixeln
+     * @param height Höhe des Bildes in Pixeln
+     * @param interval Bildausschnitt
+     * @param colorProjection Farbprojektion, die jedem Folgeglied anhand
+     * seines Index eine Farbe zuordnet
+     * @param linesNotPoints true sofern aufeinanderfolgende Folgeglieder
+     * durch Linien verbunden werden sollen
+     */
+    public void draw(Graphics2D g, int width, int height,
+        VectorRectangle interval, ColorProjection colorProjection,
+        boolean linesNotPoints) {
+        project(width, height, interval);
+        
+        if (this.colorProjection != colorProjection) {
+            this.colorProjection = colorProjection;
+            colors = new Color[length];
+            for (int i = 0; i < length; ++i) {
+                colors[i] = colorProjection.project(i, amount);
+            }
+        }
+        
+        Color color = null;
+        
+        for (int i = 0; i < length; ++i) {
+            int px = screenX[i];
+            int py = screenY[i];
+            if (px < 0 || px >= width || py < 0 || py >= height) continue;
+            
+            if (colors[i] != color) {
+                color = colors[i];
+                g.setColor(color);
+            }
+            
+            if (!linesNotPoints) g.drawRect(px, py, 1, 1);
+            else if (i > 0) g.drawLine(screenX[i - 1], screenY[i - 1], px, py);
+        }
+    }
+    
+    /**
+     * Berechnet die Bildschirmkoordinaten aller Folgeglieder, sofern sich der
+     * Bildausschnitt oder die Bildgröße seit der letzten Berechnung geändert
+     * haben.
+     */
+    private void project(int width, int height, VectorRectangle interval) {
+        if (interval == projectedInterval && width == projectedWidth
+            && height == projectedHeight) return;
+        
+        projectedInterval = interval;
+        projectedWidth = width;
+        projectedHeight = height;
+        if (screenX == null) {
+            screenX = new int[length];
+            screenY = new int[length];
+        }
+        
+        double left = interval.getLeft();
+        double bottom = interval.getBottom();
+        double sx = width / interval.getWidth();
+        double sy = height / interval.getHeight();
+        
+        for (int i = 0; i < length; ++i) {
+            screenX[i] = (int)((x[i] - left) * sx);
+            screenY[i] = (int)(height - (y[i] - bottom) * sy);
+        }
+    }
+}
@@ -1,6 +1,15 @@
 package mandelbrot;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
 import util.ScreenProjection;
 import util.VectorRectangle;
 
@@ -13,65 +22,444 @@ import util.VectorRectangle;
  * Objekte der Klasse sind ausführbar, wobei bei der Ausführung die
  * entsprechende Darstellung berechnet wird.
  * Ein Objekt der Klasse sollte immer nur genau einmal ausgeführt werden. Dazu
- * gibt es einen synchronisierten Reservierungsmechanismus, sodass im Falle der
+ * gibt es einen sperrfreien Reservierungsmechanismus, sodass im Falle der
  * Verwendung eines Threadpools ein thread threadsafe die Reservierung eines
  * Rendering-Objektes mit der Methode boolean tryToReserve() versuchen kann,
  * die nur bei ihrem ersten Aufruf überhaupt true liefern wird, was dann als
  * Übertragung der exklusiven Ausführungszuständigkeit an den reservierenden
  * Thread interpretiert werden soll.
+ * Der Zustand der Kachel durchläuft dabei UNRESERVED, RESERVED, RUNNING und
+ * schließlich DONE oder CANCELLED, wobei jeder Übergang durch
+ * Compare-and-Set erfolgt, sodass lesende Threads nie blockieren.
+ * Stellt sich nach der Berechnung heraus, dass alle Pixel dieselbe Farbe
+ * haben, wird das Pixelbild verworfen und durch ein gemeinsam genutztes
+ * UniformTile-Objekt ersetzt.
+ * Das Pixelbild wird erst bei der Ausführung angelegt, sodass noch nicht
+ * berechnete Kacheln nur als Beschreibung ihres Intervalls existieren. Es
+ * stammt aus dem BufferPool und wird mit release() dorthin zurückgegeben.
+ * Eine laufende Berechnung prüft vor jedem Pixel, ob die Kachel freigegeben
+ * wurde, und bricht in diesem Fall ab, ohne die Kachel als berechnet zu
+ * markieren. Da Kacheln über den TileStore geteilt werden, geschieht dies
+ * erst, wenn kein Kachelgitter sie mehr verwendet.
+ * Die Berechnung erfolgt in Bändern von Spalten, die der ausführende Thread
+ * nacheinander vergibt. Dauert bereits das erste Band lange, wird die Kachel
+ * dem Scheduler als teilbar gemeldet, sodass sich untätige Worker-Threads
+ * mit help() an den verbleibenden Bändern beteiligen können. Der Thread, der
+ * als letzter fertig wird, schließt die Berechnung ab, sodass run() unter
+ * Umständen zurückkehrt, bevor die Kachel fertig berechnet ist.
+ * Einreihung, Beginn, Fortschritt je Band, Abschluss und Abbruch der
+ * Berechnung werden an die gesetzten TileEvents gemeldet, die Einreihung nur
+ * einmal, auch wenn mehrere Kachelgitter die Kachel einreihen.
  */
-public class Rendering extends BufferedImage implements Runnable {
+public class Rendering implements Runnable {
+    public final int width;
+    public final int height;
+    public final TileKey key;
     public final VectorRectangle interval;
     public final ColorProjection colorProjection;
     public final int iterations;
     
-    public int time = 0; // Ausführungsdauer in Millisekunden
+    public volatile int time = 0; // Ausführungsdauer in Millisekunden
+    public volatile long estimate = -1; // vorhergesagter Aufwand in
+        // Iterationen, -1 sofern unbekannt
+    public volatile TileListener listener = null; // wird benachrichtigt,
+        // sobald die Kachel fertig ist
+    public volatile TileEvents events = null; // erhält die Ereignisse des
+        // Lebenszyklus der Kachel
+    
+    BufferPool pool = BufferPool.instance; // Herkunft des Pixelbildes
+    CostModel costModel = CostModel.instance; // sagt den Aufwand voraus und
+        // bewertet die Vorhersage
     
     /**
      * Erzeugt ein neues Rendering.
      * 
      * @param width Breite des Renderings in Pixeln
      * @param height Höhe des Renderings in Pixeln
-     * @param interval darzustellendes Interval
+     * @param key Lage der Kachel, die das darzustellende Intervall festlegt
      * @param colorProjection zu verwendende Farbprojektion
      * @param iterations zur Berechnung zu verwendende Iterationstiefe
      */
-    public Rendering(int width, int height, VectorRectangle interval,
+    public Rendering(int width, int height, TileKey key,
         ColorProjection colorProjection, int iterations) {
-        super(width, height, BufferedImage.TYPE_INT_RGB);
-        this.interval = interval;
+        this.width = width;
+        this.height = height;
+        this.key = key;
+        this.interval = key.getInterval();
         this.colorProjection = colorProjection;
         this.iterations = iterations;
     }
     
-    private boolean isReserved = false;
+    public static final int UNRESERVED = 0;
+    public static final int RESERVED = 1;
+    public static final int RUNNING = 2;
+    public static final int DONE = 3;
+    public static final int CANCELLED = 4;
+    
+    private final AtomicInteger state = new AtomicInteger(UNRESERVED);
+    private final AtomicReference<BufferedImage> image
+        = new AtomicReference<BufferedImage>();
+    private volatile UniformTile uniform = null;
+    private volatile boolean isReleased = false;
+    private final AtomicBoolean isQueued = new AtomicBoolean(false);
+    
+    /**
+     * @return der einfarbige Kachelinhalt oder null, sofern die Kachel noch
+     * nicht fertig berechnet oder nicht einfarbig ist
+     */
+    public UniformTile getUniform() {
+        return uniform;
+    }
+    
+    /**
+     * @return aktueller Zustand, einer der Werte UNRESERVED, RESERVED,
+     * RUNNING, DONE und CANCELLED
+     */
+    public int getState() {
+        return state.get();
+    }
+    
+    /**
+     * @return true sofern die Kachel fertig berechnet ist
+     */
+    public boolean isDone() {
+        return state.get() == DONE;
+    }
     
     /**
      * Versucht das Objekt zu reservieren und somit die exklusive
      * Ausführungszuständigkeit zu erlangen.
      * @return true sofern die Reservierung geglückt ist, ansonsten false
      */
-    public synchronized boolean tryToReserve() {
-        if (isReserved) return false;
-        return isReserved = true;
+    public boolean tryToReserve() {
+        return state.compareAndSet(UNRESERVED, RESERVED);
+    }
+    
+    /**
+     * @return true sofern das Objekt bereits reserviert oder freigegeben ist
+     */
+    public boolean isReserved() {
+        return state.get() != UNRESERVED;
+    }
+    
+    /**
+     * Gibt die Kachel frei, sobald sie nicht mehr benötigt wird, und
+     * verhindert ihre zukünftige Ausführung bzw. bricht eine laufende
+     * Ausführung ab. Das Pixelbild wird an den BufferPool zurückgegeben, im
+     * Falle einer laufenden Ausführung erst bei deren Abbruch.
+     */
+    public void release() {
+        if (isReleased) return;
+        isReleased = true;
+        
+        if (state.compareAndSet(UNRESERVED, CANCELLED)
+            || state.compareAndSet(RESERVED, CANCELLED)) {
+            publish(TileEvent.CANCELLED, 0, false);
+            return;
+        }
+        
+        if (state.get() == DONE) recycle();
+    }
+    
+    /**
+     * Meldet die Kachel als eingereiht, sofern ihre Berechnung noch aussteht
+     * und dies noch nicht geschehen ist.
+     */
+    void queued() {
+        if (!isReserved() && isQueued.compareAndSet(false, true)) {
+            publish(TileEvent.QUEUED, 0, false);
+        }
+    }
+    
+    private void recycle() {
+        BufferedImage i = image.getAndSet(null);
+        if (i != null) pool.give(i);
+    }
+    
+    /*** splitting ***/
+    
+    public static final int bandWidth = 10; // Spalten je Teilaufgabe
+    public static final int splitThreshold = 10; // Mindestdauer der ersten
+        // Teilaufgabe in Millisekunden, ab der die Kachel geteilt wird
+    
+    Scheduler scheduler = null; // Scheduler, der die Kachel vergeben hat
+    
+    private BufferedImage target; // Pixelbild der laufenden Berechnung
+    private long t0;
+    private final AtomicInteger nextColumn = new AtomicInteger(0); // erste
+        // noch nicht vergebene Spalte
+    private final AtomicInteger doneColumns = new AtomicInteger(0);
+    private final AtomicInteger workers = new AtomicInteger(0); // an der
+        // Berechnung beteiligte Threads, 0 sobald sie abgeschlossen wird
+    private final AtomicInteger firstValue = new AtomicInteger(-1);
+    private volatile boolean isUniform = true;
+    private final AtomicLongArray quadrantCost = new AtomicLongArray(4); // Aufwand
+        // in Iterationen
+    
+    /**
+     * @return tatsächlicher Aufwand der bisher berechneten Pixel in
+     * Iterationen
+     */
+    public long getCost() {
+        return quadrantCost.get(0) + quadrantCost.get(1)
+            + quadrantCost.get(2) + quadrantCost.get(3);
+    }
+    
+    /**
+     * Liefert den Aufwand eines Viertels der Kachel.
+     * 
+     * @param q Viertel, wobei 0 oben links, 1 oben rechts, 2 unten links
+     * und 3 unten rechts ist
+     * @return Aufwand in Iterationen
+     */
+    public long getQuadrantCost(int q) {
+        return quadrantCost.get(q);
     }
     
     @Override
     public void run() {
-        long t0 = System.currentTimeMillis();
+        if (isReleased || !state.compareAndSet(RESERVED, RUNNING)) return;
         
-        ScreenProjection sp = new ScreenProjection(interval,
-            getWidth(), getHeight());
+        t0 = System.currentTimeMillis();
+        publish(TileEvent.STARTED, 0, true);
+        target = pool.take(width, height);
+        image.set(target);
+        workers.set(1);
+        
+        long t = System.currentTimeMillis();
+        int x = claim();
+        if (x != -1 && render(x) && scheduler != null
+            && System.currentTimeMillis() - t >= splitThreshold) {
+            scheduler.share(this);
+        }
+        
+        work();
+    }
+    
+    /**
+     * Beteiligt den aufrufenden Thread an der laufenden Berechnung der Kachel,
+     * sofern noch nicht alle Spalten vergeben sind.
+     */
+    public void help() {
+        while (true) {
+            int w = workers.get();
+            if (w == 0 || !isSplittable()) return;
+            if (workers.compareAndSet(w, w + 1)) break;
+        }
+        
+        work();
+    }
+    
+    /**
+     * @return true sofern die Kachel gerade berechnet wird und noch nicht
+     * vergebene Spalten hat, an denen sich weitere Threads beteiligen können
+     */
+    public boolean isSplittable() {
+        return state.get() == RUNNING && workers.get() > 0
+            && nextColumn.get() < width && !isReleased;
+    }
+    
+    private int claim() {
+        if (isReleased) return -1;
+        
+        int x = nextColumn.getAndAdd(bandWidth);
+        return x < width ? x : -1;
+    }
+    
+    private void work() {
+        int x;
+        while ((x = claim()) != -1) {
+            if (!render(x)) break;
+        }
+        
+        if (workers.decrementAndGet() > 0) return;
+        
+        if (doneColumns.get() != width) {
+            cancel();
+            return;
+        }
+        
+        costModel.record(estimate, getCost());
+        finish(target, isUniform ? UniformTile.get(firstValue.get(),
+            colorProjection.project(firstValue.get(), iterations).getRGB()) : null, t0);
+        publish(TileEvent.FINISHED, 1, true);
+    }
+    
+    /**
+     * Berechnet die Spalten ab der angegebenen Spalte.
+     * 
+     * @param x0 erste Spalte
+     * @return false sofern die Berechnung abgebrochen wurde
+     */
+    private boolean render(int x0) {
+        BufferedImage image = target;
+        int x1 = Math.min(width, x0 + bandWidth);
+        
+        ScreenProjection sp = new ScreenProjection(interval, width, height);
         ProgressionCalculator pc = new ProgressionCalculator();
         
-        for (int x = 0; x < getWidth(); ++x) {
-            for (int y = 0; y < getHeight(); ++y) {
+        int first = -1;
+        boolean uniform = true;
+        long[] cost = new long[4];
+        
+        for (int x = x0; x < x1; ++x) {
+            for (int y = 0; y < height; ++y) {
+                if (isReleased) return false;
+                
                 pc.begin(sp.projectFromScreen(x, y));
-                setRGB(x, y, colorProjection
-                    .project(pc.calculate(iterations), iterations).getRGB());
+                int n = pc.calculate(iterations);
+                image.setRGB(x, y, colorProjection.project(n, iterations).getRGB());
+                
+                if (first == -1) first = n;
+                else if (n != first) uniform = false;
+                
+                cost[(2 * x >= width ? 1 : 0) + (2 * y >= height ? 2 : 0)]
+                    += n == 0 ? iterations : n;
+            }
+        }
+        
+        for (int q = 0; q < 4; ++q) quadrantCost.addAndGet(q, cost[q]);
+        firstValue.compareAndSet(-1, first);
+        if (!uniform || firstValue.get() != first) isUniform = false;
+        int done = doneColumns.addAndGet(x1 - x0);
+        if (done < width) publish(TileEvent.PROGRESS, done / (double)width, true);
+        
+        return true;
+    }
+    
+    /**
+     * Berechnet die Kachel nicht, sondern setzt sie durch Herunterskalieren
+     * der angegebenen fertig berechneten Kacheln einer feineren Auflösung
+     * zusammen, die das Intervall der Kachel vollständig überdecken müssen.
+     * Dies gelingt nur, sofern die Kachel noch nicht reserviert ist.
+     * 
+     * @param sources fertig berechnete Kacheln feinerer Auflösung
+     * @return true sofern die Kachel zusammengesetzt wurde, ansonsten false
+     */
+    public boolean seed(List<Rendering> sources) {
+        if (!state.compareAndSet(UNRESERVED, RUNNING)) return false;
+        
+        long t0 = System.currentTimeMillis();
+        
+        for (Rendering r: sources) {
+            int q = (r.interval.getCenter().getX() > interval.getCenter().getX() ? 1 : 0)
+                + (r.interval.getCenter().getY() < interval.getCenter().getY() ? 2 : 0);
+            
+            quadrantCost.addAndGet(q, r.getCost() / 4);
+        }
+        
+        UniformTile u = sources.get(0).getUniform();
+        for (Rendering r: sources) {
+            if (r.getUniform() != u) u = null;
+        }
+        
+        BufferedImage image = null;
+        
+        if (u == null) {
+            image = pool.take(width, height);
+            
+            Graphics2D g = image.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            ScreenProjection sp = new ScreenProjection(interval, width, height);
+            
+            for (Rendering r: sources) {
+                Point tl = sp.projectToScreen(r.interval.getTopLeft());
+                Point br = sp.projectToScreen(r.interval.getBottomRight());
+                r.draw(g, tl.x, tl.y, br.x - tl.x, br.y - tl.y);
             }
+            
+            g.dispose();
         }
         
+        finish(image, u, t0);
+        publish(TileEvent.FINISHED, 1, false);
+        return true;
+    }
+    
+    private void cancel() {
+        state.set(CANCELLED);
+        recycle();
+        publish(TileEvent.CANCELLED, doneColumns.get() / (double)width, true);
+    }
+    
+    private void publish(int type, double progress, boolean isStarted) {
+        TileEvents e = events;
+        if (e != null) e.publish(type, this, progress, isStarted);
+    }
+    
+    private void finish(BufferedImage image, UniformTile uniform, long t0) {
+        if (uniform != null) {
+            this.uniform = uniform;
+            if (image != null && this.image.compareAndSet(image, null)) {
+                pool.give(image);
+            }
+        }
+        else this.image.set(image);
+        
         time = Math.max(1, (int)(System.currentTimeMillis() - t0));
+        state.set(DONE);
+        
+        if (isReleased) recycle();
+        
+        TileListener l = listener;
+        if (l != null) l.tileFinished(this);
+    }
+    
+    /**
+     * Zeichnet die Kachel in das angegebene Rechteck.
+     * 
+     * @param g das Graphics2D-Objekt, auf das gezeichnet werden soll
+     * @param x x-Koordinate in Pixeln
+     * @param y y-Koordinate in Pixeln
+     * @param width Breite in Pixeln
+     * @param height Höhe in Pixeln
+     */
+    public void draw(Graphics2D g, int x, int y, int width, int height) {
+        UniformTile u = uniform;
+        BufferedImage i = image.get();
+        
+        if (u != null) u.draw(g, x, y, width, height);
+        else if (i != null) g.drawImage(i, x, y, width, height, null);
+        else {
+            g.setColor(Color.BLACK);
+            g.fillRect(x, y, width, height);
+        }
+    }
+    
+    /**
+     * Zeichnet den angegebenen Teil des Intervalls der Kachel vergrößert in
+     * das angegebene Rechteck, sofern die Kachel fertig berechnet ist.
+     * 
+     * @param g das Graphics2D-Objekt, auf das gezeichnet werden soll
+     * @param x x-Koordinate in Pixeln
+     * @param y y-Koordinate in Pixeln
+     * @param width Breite in Pixeln
+     * @param height Höhe in Pixeln
+     * @param part zu zeichnender Teil des Intervalls der Kachel
+     * @return true sofern gezeichnet wurde
+     */
+    public boolean drawPart(Graphics2D g, int x, int y, int width, int height,
+        VectorRectangle part) {
+        UniformTile u = uniform;
+        BufferedImage i = image.get();
+        
+        if (u != null) {
+            u.draw(g, x, y, width, height);
+            return true;
+        }
+        
+        if (i == null || !isDone()) return false;
+        
+        double sx = this.width / interval.getWidth();
+        double sy = this.height / interval.getHeight();
+        
+        g.drawImage(i, x, y, x + width, y + height,
+            (int)Math.round((part.getLeft() - interval.getLeft()) * sx),
+            (int)Math.round((interval.getTop() - part.getTop()) * sy),
+            (int)Math.round((part.getRight() - interval.getLeft()) * sx),
+            (int)Math.round((interval.getTop() - part.getBottom()) * sy),
+            null);
+        return true;
     }
 }
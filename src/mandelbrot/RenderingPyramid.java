@@ -0,0 +1,257 @@
+package mandelbrot;
+
+import util.Vector;
+import util.VectorRectangle;
+
+/**
+ * Definiert einen Stapel von TiledRenderings aufeinanderfolgender
+ * Auflösungsstufen um die aktuelle Ebene herum.
+ * Die Ebenen werden relativ zur aktuellen Ebene 0 nummeriert und entsprechen
+ * aufeinanderfolgenden Ebenen des durch TileKey definierten Quadtrees.
+ * Positive Ebenen sind um Zweierpotenzen feiner und dienen der
+ * Vorausberechnung beim Hereinzoomen, negative Ebenen sind entsprechend
+ * gröber und dienen der Vorausberechnung beim Herauszoomen.
+ * Wird die Auflösung der aktuellen Ebene über- oder unterschritten, rückt der
+ * gesamte Stapel um eine Ebene weiter, sodass alle bereits berechneten Ebenen
+ * weiterverwendet werden und nur die neu hinzukommende äußerste Ebene neu
+ * angelegt werden muss.
+ * Neu angelegte gröbere Ebenen werden, soweit möglich, durch Herunterskalieren
+ * der jeweils nächstfeineren Ebene gefüllt, sodass nur der neu hinzukommende
+ * äußere Bereich berechnet werden muss.
+ * Die Priorität der Kacheln einer Ebene wird mit ihrem Abstand zur aktuellen
+ * Ebene geringer, wobei von Ebenen gleichen Abstandes diejenige in
+ * Zoomrichtung vorgezogen wird.
+ */
+public class RenderingPyramid {
+    private final Viewport viewport;
+    
+    public final int levelsAbove; // Anzahl gröberer Ebenen
+    public final int levelsBelow; // Anzahl feinerer Ebenen
+    
+    private volatile TiledRendering[] levels; // wird nur als Ganzes ersetzt
+    
+    /**
+     * Erzeugt einen neuen Stapel.
+     * 
+     * @param viewport Ansicht, die die Parameter der Ebenen vorgibt
+     * @param levelsAbove Anzahl gröberer Ebenen
+     * @param levelsBelow Anzahl feinerer Ebenen
+     * @param interval Bildausschnitt der aktuellen Ebene
+     */
+    public RenderingPyramid(Viewport viewport, int levelsAbove,
+        int levelsBelow, VectorRectangle interval) {
+        this.viewport = viewport;
+        this.levelsAbove = levelsAbove;
+        this.levelsBelow = levelsBelow;
+        this.levels = new TiledRendering[levelsAbove + 1 + levelsBelow];
+        
+        levels[levelsAbove] = viewport.createTiledRendering(interval);
+        fill();
+    }
+    
+    /**
+     * @return die aktuelle Ebene
+     */
+    public TiledRendering getCurrent() {
+        return levels[levelsAbove];
+    }
+    
+    /**
+     * Liefert die angegebene Ebene.
+     * 
+     * @param level Ebene relativ zur aktuellen Ebene
+     * @return die Ebene oder null, sofern sie nicht existiert
+     */
+    public TiledRendering get(int level) {
+        if (level < -levelsAbove || level > levelsBelow) return null;
+        return levels[levelsAbove + level];
+    }
+    
+    private void set(int i, TiledRendering level) {
+        TiledRendering[] copy = levels.clone();
+        copy[i] = level;
+        levels = copy;
+    }
+    
+    /*** rearanging ***/
+    
+    /**
+     * Macht die nächstfeinere Ebene zur aktuellen Ebene.
+     */
+    public void zoomIn() {
+        TiledRendering previous = getCurrent();
+        TiledRendering dropped = levels[0];
+        
+        TiledRendering[] shifted = new TiledRendering[levels.length];
+        System.arraycopy(levels, 1, shifted, 0, levels.length - 1);
+        
+        activate(shifted, previous.interval, previous.level + 1, null);
+        if (dropped != null) dropped.release();
+    }
+    
+    /**
+     * Macht die nächstgröbere Ebene zur aktuellen Ebene.
+     */
+    public void zoomOut() {
+        TiledRendering previous = getCurrent();
+        TiledRendering dropped = levels[levels.length - 1];
+        
+        TiledRendering[] shifted = new TiledRendering[levels.length];
+        System.arraycopy(levels, 0, shifted, 1, levels.length - 1);
+        
+        activate(shifted, previous.interval, previous.level - 1, previous);
+        if (dropped != null) dropped.release();
+    }
+    
+    /**
+     * Macht die Ebene an der Stelle der aktuellen Ebene des angegebenen
+     * verschobenen Stapels zur aktuellen Ebene oder legt sie an, sofern sie
+     * nicht existiert, und veröffentlicht den Stapel erst danach, sodass
+     * lesende Threads stets eine aktuelle Ebene vorfinden.
+     * 
+     * @param shifted verschobener, noch nicht veröffentlichter Stapel
+     * @param interval Bildausschnitt der neuen aktuellen Ebene
+     * @param level Ebene des Quadtrees der neuen aktuellen Ebene
+     * @param finer feinere Ebene, aus der eine neu angelegte Ebene durch
+     * Herunterskalieren übernommen werden soll, oder null
+     */
+    private void activate(TiledRendering[] shifted, VectorRectangle interval,
+        int level, TiledRendering finer) {
+        if (shifted[levelsAbove] == null) {
+            shifted[levelsAbove] = viewport.createTiledRendering(interval, level);
+            if (finer != null) shifted[levelsAbove].seed(finer);
+        }
+        else {
+            shifted[levelsAbove].interval = interval;
+            shifted[levelsAbove].recenter();
+        }
+        
+        levels = shifted;
+        fill();
+    }
+    
+    /**
+     * Legt fehlende Ebenen an bzw. gibt alle nicht aktuellen Ebenen frei,
+     * sofern die Vorausberechnung weiterer Ebenen nicht erwünscht ist.
+     */
+    private void fill() {
+        for (int i = levelsAbove - 1; i >= 0; --i) {
+            build(i);
+            if (levels[i] != null && levels[i + 1] != null) levels[i].seed(levels[i + 1]);
+        }
+        
+        for (int i = levelsAbove + 1; i < levels.length; ++i) {
+            build(i);
+        }
+        
+        follow();
+    }
+    
+    private void build(int i) {
+        if (!viewport.mandelbrot.isPrefetchEnabled()) {
+            if (levels[i] != null) levels[i].release();
+            set(i, null);
+        }
+        else if (levels[i] == null) {
+            TiledRendering current = getCurrent();
+            set(i, viewport.createTiledRendering(
+                current.interval.scale(Math.scalb(1d, levelsAbove - i)),
+                current.level + i - levelsAbove));
+        }
+    }
+    
+    /**
+     * Verschiebt die Bildausschnitte aller nicht aktuellen Ebenen in der
+     * Weise, dass sie dem Bildausschnitt der aktuellen Ebene folgen, und
+     * richtet die Prioritäten neu aus.
+     */
+    public void follow() {
+        TiledRendering current = getCurrent();
+        
+        for (int i = 0; i < levels.length; ++i) {
+            if (i == levelsAbove || levels[i] == null) continue;
+            
+            levels[i].interval = current.interval.scale(
+                Math.scalb(1d, levelsAbove - i));
+            levels[i].recenter();
+        }
+        
+        prioritize();
+    }
+    
+    /**
+     * Richtet die Prioritäten aller Ebenen am aktuellen Bildausschnitt, am
+     * Mauspunkt, an der geschätzten Bewegung und am Rang der Ansicht aus und
+     * berechnet die Prioritäten aller eingereihten Kacheln neu. Beim
+     * Hereinzoomen werden feinere Ebenen um den Zoompunkt herum vorgezogen.
+     */
+    public void prioritize() {
+        TiledRendering current = getCurrent();
+        
+        Vector cursor = viewport.mousePoint;
+        if (cursor != null && !current.interval.contains(cursor)) cursor = null;
+        
+        double zoomRate = viewport.motion.getZoomRate();
+        Vector zoomOrigin = viewport.motion.getZoomOrigin();
+        Vector lead = viewport.motion.getLead();
+        int rankOffset = viewport.getRankOffset();
+        
+        for (int i = 0; i < levels.length; ++i) {
+            if (levels[i] == null) continue;
+            
+            int d = i - levelsAbove;
+            levels[i].rank = getRank(d, zoomRate) + rankOffset;
+            levels[i].coarser = i > 0 ? levels[i - 1] : null;
+            levels[i].lead = lead;
+            levels[i].focus = d > 0 && zoomOrigin != null
+                && zoomRate < -MotionEstimator.zoomThreshold
+                ? zoomOrigin : current.interval.getCenter().plus(lead);
+            levels[i].cursor = cursor;
+        }
+        
+        viewport.mandelbrot.scheduler.reschedule();
+    }
+    
+    /**
+     * Bestimmt den Rang einer Ebene. Ebenen gleichen Abstandes zur aktuellen
+     * Ebene werden in Zoomrichtung vorgezogen, wobei ohne Herauszoomen die
+     * feinere Ebene vorgezogen wird.
+     * 
+     * @param d Ebene relativ zur aktuellen Ebene
+     * @param zoomRate geschätzte Zoomrate
+     * @return Rang, wobei kleinere Werte eine höhere Priorität bedeuten
+     */
+    private static int getRank(int d, double zoomRate) {
+        if (d == 0) return 0;
+        boolean preferred = zoomRate > MotionEstimator.zoomThreshold ? d < 0 : d > 0;
+        return 2 * Math.abs(d) - (preferred ? 1 : 0);
+    }
+    
+    /**
+     * Passt die Kachelgitter aller Ebenen an die aktuelle Größe des
+     * Datenmodells an, wobei alle weiterhin gültigen Kacheln erhalten bleiben.
+     */
+    public void resize() {
+        for (TiledRendering level: levels) {
+            if (level != null) {
+                level.resize(viewport.width, viewport.height,
+                    viewport.mandelbrot.settings.frame,
+                    viewport.mandelbrot.getLowPriorityFrame(),
+                    viewport.mandelbrot.getScaleup());
+            }
+        }
+        
+        getCurrent().recenter();
+        follow();
+    }
+    
+    /**
+     * Gibt alle Ebenen frei. Der Stapel darf danach nicht mehr verwendet
+     * werden.
+     */
+    public void release() {
+        for (TiledRendering level: levels) {
+            if (level != null) level.release();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package mandelbrot;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Definiert eine Warteschlange noch zu berechnender Kacheln, die nach ihrer
+ * Priorität geordnet sind. Kacheln werden bei ihrer Erzeugung eingereiht,
+ * Worker-Threads entnehmen mit take() jeweils die Kachel höchster Priorität
+ * und warten, solange es nichts zu tun gibt, bis eine neue Kachel eingereiht
+ * wird.
+ * Die Priorität einer Kachel wird durch das TiledRendering festgelegt, zu dem
+ * sie gehört, wobei kleinere Werte eine höhere Priorität bedeuten. Unter
+ * Kacheln gleicher Priorität werden diejenigen mit dem größten durch das
+ * CostModel vorhergesagten Aufwand zuerst vergeben. Da sie
+ * sich mit dem Bildausschnitt ändert, kann sie mit reschedule() für alle
+ * Kacheln neu berechnet werden.
+ * Wird eine Kachel von mehreren Kachelgittern verwendet, ist sie für jedes
+ * von ihnen eingereiht und wird mit der höchsten dieser Prioritäten vergeben.
+ * Freigegebene oder anderweitig reservierte Kacheln werden nicht sofort
+ * entfernt, sondern erst bei ihrer Entnahme bzw. bei der nächsten
+ * Neuberechnung der Prioritäten verworfen.
+ * Ist keine Kachel mehr eingereiht, beteiligen sich wartende Worker-Threads
+ * an der Berechnung laufender Kacheln, die mit share() als teilbar gemeldet
+ * wurden, sodass einzelne aufwendige Kacheln am Ende einer Berechnung nicht
+ * von nur einem Thread berechnet werden.
+ */
+public class Scheduler {
+    private static class Entry implements Comparable<Entry> {
+        final TiledRendering grid;
+        final Rendering tile;
+        final long sequence; // Reihenfolge bei gleicher Priorität und
+            // gleichem Aufwand
+        double priority;
+        long cost; // vorhergesagter Aufwand, -1 sofern unbekannt
+        
+        Entry(TiledRendering grid, Rendering tile, long sequence) {
+            this.grid = grid;
+            this.tile = tile;
+            this.sequence = sequence;
+            update();
+        }
+        
+        void update() {
+            priority = grid.getPriority(tile);
+            cost = tile.estimate = tile.costModel.estimate(grid, tile);
+        }
+        
+        @Override
+        public int compareTo(Entry e) {
+            if (priority != e.priority) return priority < e.priority ? -1 : 1;
+            if (cost != e.cost) return cost > e.cost ? -1 : 1;
+            return sequence < e.sequence ? -1 : sequence > e.sequence ? 1 : 0;
+        }
+    }
+    
+    private PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+    private long sequence = 0;
+    
+    private final List<Rendering> shared = new ArrayList<Rendering>();
+    
+    /**
+     * Reiht eine Kachel ein und weckt ggf. einen wartenden Worker-Thread.
+     * 
+     * @param grid TiledRendering, zu dem die Kachel gehört und das ihre
+     * Priorität festlegt
+     * @param tile einzureihende Kachel
+     */
+    public synchronized void add(TiledRendering grid, Rendering tile) {
+        queue.add(new Entry(grid, tile, sequence++));
+        notify();
+    }
+    
+    /**
+     * Berechnet die Prioritäten und vorhergesagten Aufwände aller
+     * eingereihten Kacheln neu und verwirft dabei alle bereits reservierten
+     * Kacheln sowie Einträge von Kachelgittern, die die Kachel nicht mehr
+     * enthalten.
+     */
+    public synchronized void reschedule() {
+        List<Entry> entries = new ArrayList<Entry>(queue.size());
+        
+        for (Entry e: queue) {
+            if (e.tile.isReserved() || !e.grid.contains(e.tile)) continue;
+            e.update();
+            entries.add(e);
+        }
+        
+        queue = entries.isEmpty() ? new PriorityQueue<Entry>()
+            : new PriorityQueue<Entry>(entries);
+        if (!queue.isEmpty()) notifyAll();
+    }
+    
+    /**
+     * Meldet eine laufende Kachel als teilbar und weckt wartende
+     * Worker-Threads, damit sie sich an ihrer Berechnung beteiligen.
+     * 
+     * @param tile laufende Kachel
+     */
+    public synchronized void share(Rendering tile) {
+        shared.add(tile);
+        notifyAll();
+    }
+    
+    /**
+     * Entnimmt die Kachel höchster Priorität und reserviert diese. Gibt es
+     * keine Kachel, wird stattdessen die Beteiligung an einer teilbaren
+     * laufenden Kachel geliefert bzw., sofern es auch diese nicht gibt,
+     * gewartet, bis eine Kachel eingereiht oder geteilt wird.
+     * 
+     * @return auszuführendes Objekt
+     * @throws InterruptedException sofern der Thread beim Warten
+     * unterbrochen wurde
+     */
+    public synchronized Runnable take() throws InterruptedException {
+        while (true) {
+            Entry e = queue.poll();
+            
+            if (e != null) {
+                if (e.tile.tryToReserve()) {
+                    e.tile.scheduler = this;
+                    return e.tile;
+                }
+                continue;
+            }
+            
+            for (Iterator<Rendering> i = shared.iterator(); i.hasNext();) {
+                final Rendering t = i.next();
+                
+                if (!t.isSplittable()) i.remove();
+                else return new Runnable() {
+                    @Override
+                    public void run() {
+                        t.help();
+                    }
+                };
+            }
+            
+            wait();
+        }
+    }
+    
+    /**
+     * @return Anzahl der eingereihten Kacheln einschließlich der noch nicht
+     * verworfenen bereits reservierten Kacheln
+     */
+    public synchronized int size() {
+        return queue.size();
+    }
+}
@@ -0,0 +1,181 @@
+package mandelbrot;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Definiert die vom Rechner abhängigen Einstellungen der Berechnung, also die
+ * Anzahl der Worker-Threads, die Kachelgröße, die Rahmendicken, die
+ * Auflösungsskalierung und die angestrebte Bildwiederholrate.
+ * Die Einstellungen werden als Properties in der Datei ~/.mandelbrot.properties
+ * gespeichert, deren Ort mit der Systemeigenschaft mandelbrot.settings
+ * abweichend angegeben werden kann. Fehlende oder ungültige Einträge behalten
+ * ihre Standardwerte.
+ * Da die Kacheln quadratische Bereiche des Quadtrees darstellen, gibt es nur
+ * eine Kachelgröße, die Breite und Höhe zugleich ist.
+ * Ein Settings-Objekt, das dem Datenmodell übergeben wurde, wird nicht mehr
+ * verändert, sodass es von allen Threads ohne Sperren gelesen werden kann.
+ */
+public class Settings {
+    public int threads = 8; // Anzahl der Worker-Threads
+    public int tileSize = 100; // Seitenlänge der Kacheln in Pixeln
+    public int frame = 100; // Vorausberechnungsrahmen in Pixeln
+    public int lowPriorityFrame = 300; // in Pixeln
+    public double scaleup = 2; // Auflösungsskalierungsfaktor
+    public int fps = 60; // angestrebte Frames je Sekunde
+    
+    public static final int minTileSize = 20;
+    public static final int maxTileSize = 1000;
+    public static final double maxScaleup = 4;
+    public static final int maxFps = 240;
+    
+    /**
+     * Erzeugt Einstellungen mit den Standardwerten.
+     */
+    public Settings() {
+    }
+    
+    /**
+     * Erzeugt eine Kopie der angegebenen Einstellungen.
+     * 
+     * @param s zu kopierende Einstellungen
+     */
+    public Settings(Settings s) {
+        this.threads = s.threads;
+        this.tileSize = s.tileSize;
+        this.frame = s.frame;
+        this.lowPriorityFrame = s.lowPriorityFrame;
+        this.scaleup = s.scaleup;
+        this.fps = s.fps;
+    }
+    
+    /**
+     * Ermittelt die Datei, in der die Einstellungen gespeichert werden. Diese
+     * kann mit der Systemeigenschaft mandelbrot.settings angegeben werden und
+     * ist ansonsten ~/.mandelbrot.properties.
+     * 
+     * @return Datei
+     */
+    public static File getFile() {
+        String s = System.getProperty("mandelbrot.settings");
+        if (s != null) return new File(s);
+        
+        return new File(System.getProperty("user.home"), ".mandelbrot.properties");
+    }
+    
+    /**
+     * Gibt an, ob beim Start eine Kalibrierung durch den Autotuner erfolgen
+     * soll. Dies kann mit der Systemeigenschaft mandelbrot.autotune erzwungen
+     * oder unterbunden werden und erfolgt ansonsten nur, sofern noch keine
+     * Einstellungen gespeichert wurden.
+     * 
+     * @param isStored Angabe, ob gespeicherte Einstellungen gelesen wurden
+     * @return true sofern kalibriert werden soll
+     */
+    public static boolean isAutotuneEnabled(boolean isStored) {
+        String s = System.getProperty("mandelbrot.autotune");
+        if (s != null) return Boolean.parseBoolean(s);
+        
+        return !isStored;
+    }
+    
+    /**
+     * Begrenzt alle Werte auf gültige Bereiche. Die Kachelgröße wird dabei
+     * auf einen geraden Wert abgerundet, damit die Kacheln der nächstgröberen
+     * Ebene durch Herunterskalieren gefüllt werden können.
+     */
+    public void normalize() {
+        threads = Math.max(1, threads);
+        tileSize = clamp(tileSize, minTileSize, maxTileSize) & ~1;
+        frame = Math.max(0, frame);
+        lowPriorityFrame = Math.max(0, lowPriorityFrame);
+        scaleup = Double.isNaN(scaleup) ? 1 : Math.min(maxScaleup, Math.max(1, scaleup));
+        fps = clamp(fps, 1, maxFps);
+    }
+    
+    private static int clamp(int value, int min, int max) {
+        return Math.min(max, Math.max(min, value));
+    }
+    
+    /*** persistence ***/
+    
+    /**
+     * Liest die Einstellungen aus der angegebenen Datei.
+     * 
+     * @param file Datei im Format von Properties
+     * @return true sofern die Datei gelesen werden konnte
+     */
+    public boolean load(File file) {
+        if (!file.isFile()) return false;
+        
+        Properties p = new Properties();
+        
+        try (InputStream in = new FileInputStream(file)) {
+            p.load(in);
+        } catch (IOException ex) {
+            return false;
+        }
+        
+        threads = getInt(p, "threads", threads);
+        tileSize = getInt(p, "tileSize", getInt(p, "tileWidth", tileSize));
+        frame = getInt(p, "frame", frame);
+        lowPriorityFrame = getInt(p, "lowPriorityFrame", lowPriorityFrame);
+        scaleup = getDouble(p, "scaleup", scaleup);
+        fps = getInt(p, "fps", fps);
+        
+        normalize();
+        return true;
+    }
+    
+    /**
+     * Speichert die Einstellungen in der angegebenen Datei.
+     * 
+     * @param file Datei im Format von Properties
+     * @return true sofern die Datei geschrieben werden konnte
+     */
+    public boolean save(File file) {
+        Properties p = new Properties();
+        p.setProperty("threads", threads + "");
+        p.setProperty("tileSize", tileSize + "");
+        p.setProperty("frame", frame + "");
+        p.setProperty("lowPriorityFrame", lowPriorityFrame + "");
+        p.setProperty("scaleup", scaleup + "");
+        p.setProperty("fps", fps + "");
+        
+        try (OutputStream out = new FileOutputStream(file)) {
+            p.store(out, "mandelbrot settings");
+        } catch (IOException ex) {
+            return false;
+        }
+        
+        return true;
+    }
+    
+    private static int getInt(Properties p, String key, int value) {
+        try {
+            return Integer.parseInt(p.getProperty(key, value + "").trim());
+        } catch (NumberFormatException ex) {
+            return value;
+        }
+    }
+    
+    private static double getDouble(Properties p, String key, double value) {
+        try {
+            return Double.parseDouble(p.getProperty(key, value + "").trim());
+        } catch (NumberFormatException ex) {
+            return value;
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return threads + " threads, " + tileSize + "x" + tileSize
+            + " tiles, frame " + frame + "/" + lowPriorityFrame
+            + ", scaleup " + scaleup + ", " + fps + " fps";
+    }
+}
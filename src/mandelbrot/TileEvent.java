@@ -0,0 +1,62 @@
+package mandelbrot;
+
+/**
+ * Beschreibt einen Schritt im Lebenszyklus einer Kachel, wie er über
+ * TileEvents an Abonnenten verteilt wird.
+ * Eine Kachel wird eingereiht (QUEUED), ihre Berechnung beginnt (STARTED),
+ * schreitet bandweise voran (PROGRESS) und endet schließlich mit FINISHED
+ * oder CANCELLED. Zusammengesetzte Kacheln melden lediglich FINISHED,
+ * freigegebene Kacheln, deren Berechnung noch nicht begonnen hat, lediglich
+ * CANCELLED.
+ * Objekte der Klasse sind unveränderlich.
+ */
+public class TileEvent {
+    public static final int QUEUED = 0;
+    public static final int STARTED = 1;
+    public static final int PROGRESS = 2;
+    public static final int FINISHED = 3;
+    public static final int CANCELLED = 4;
+    
+    public static final String[] typeNames = {
+        "queued", "started", "progress", "finished", "cancelled"
+    };
+    
+    public final int type; // einer der Werte QUEUED bis CANCELLED
+    public final Rendering tile;
+    public final long timestamp; // Zeitpunkt im Sinne von System.nanoTime()
+    public final long iterations; // bisheriger Aufwand in Iterationen
+    public final double progress; // Anteil der berechneten Spalten
+    public final int time; // Ausführungsdauer in Millisekunden, sofern die
+        // Kachel fertig ist, ansonsten 0
+    public final boolean isStarted; // Angabe, ob die Kachel zuvor mit STARTED
+        // gemeldet wurde
+    
+    /**
+     * Erzeugt ein neues Ereignis zum aktuellen Zeitpunkt.
+     * 
+     * @param type einer der Werte QUEUED bis CANCELLED
+     * @param tile betroffene Kachel
+     * @param iterations bisheriger Aufwand in Iterationen
+     * @param progress Anteil der berechneten Spalten zwischen 0 und 1
+     * @param time Ausführungsdauer in Millisekunden oder 0
+     * @param isStarted true sofern die Kachel zuvor mit STARTED gemeldet
+     * wurde
+     */
+    public TileEvent(int type, Rendering tile, long iterations,
+        double progress, int time, boolean isStarted) {
+        this.type = type;
+        this.tile = tile;
+        this.timestamp = System.nanoTime();
+        this.iterations = iterations;
+        this.progress = progress;
+        this.time = time;
+        this.isStarted = isStarted;
+    }
+    
+    @Override
+    public String toString() {
+        return typeNames[type] + " " + tile.key + " "
+            + String.format("%.0f%%", progress * 100) + " " + iterations
+            + " iterations" + (time > 0 ? " " + time + " ms" : "");
+    }
+}
@@ -0,0 +1,125 @@
+package mandelbrot;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Definiert einen Verteiler von TileEvents an beliebig viele Abonnenten,
+ * etwa Ansichten, Exporter oder Überwachungswerkzeuge, die damit eigene
+ * Zähler fortschreiben können, statt die Kachelgitter zu durchsuchen.
+ * Jedes Abonnement besitzt einen eigenen Puffer beschränkter Größe. Ist er
+ * voll, wird das älteste Ereignis verworfen und gezählt, sodass ein
+ * langsamer Abonnent weder die Worker-Threads aufhält noch unbeschränkt
+ * Speicher belegt. Abonnenten holen die Ereignisse in ihrem eigenen Thread
+ * ab, sodass in den Worker-Threads kein fremder Code ausgeführt wird.
+ * Ohne Abonnenten werden keine Ereignisse erzeugt.
+ * Die Methoden können von beliebigen Threads aufgerufen werden.
+ */
+public class TileEvents {
+    /**
+     * Beschreibt ein Abonnement mit eigenem Puffer.
+     */
+    public final class Subscription {
+        public final int capacity; // Größe des Puffers
+        
+        private final ArrayDeque<TileEvent> buffer;
+        private long dropped = 0; // Anzahl der verworfenen Ereignisse
+        
+        private Subscription(int capacity) {
+            this.capacity = capacity;
+            this.buffer = new ArrayDeque<TileEvent>(capacity);
+        }
+        
+        private synchronized void offer(TileEvent event) {
+            if (buffer.size() == capacity) {
+                buffer.pollFirst();
+                ++dropped;
+            }
+            
+            buffer.addLast(event);
+        }
+        
+        /**
+         * @return ältestes noch nicht abgeholtes Ereignis oder null, sofern
+         * keines vorliegt
+         */
+        public synchronized TileEvent poll() {
+            return buffer.pollFirst();
+        }
+        
+        /**
+         * Holt alle vorliegenden Ereignisse in der Reihenfolge ihres
+         * Eintreffens ab.
+         * 
+         * @param events Liste, an die die Ereignisse angehängt werden
+         * @return Anzahl der abgeholten Ereignisse
+         */
+        public synchronized int drainTo(List<TileEvent> events) {
+            int n = buffer.size();
+            events.addAll(buffer);
+            buffer.clear();
+            return n;
+        }
+        
+        /**
+         * @return Anzahl der Ereignisse, die wegen eines vollen Puffers
+         * verworfen wurden
+         */
+        public synchronized long getDropped() {
+            return dropped;
+        }
+        
+        /**
+         * Beendet das Abonnement. Bereits gepufferte Ereignisse können
+         * weiterhin abgeholt werden.
+         */
+        public void cancel() {
+            subscriptions.remove(this);
+        }
+    }
+    
+    public static final int defaultCapacity = 4096;
+    
+    private final List<Subscription> subscriptions
+        = new CopyOnWriteArrayList<Subscription>();
+    
+    /**
+     * Meldet ein neues Abonnement an, das alle ab jetzt veröffentlichten
+     * Ereignisse erhält.
+     * 
+     * @param capacity Anzahl der höchstens gepufferten Ereignisse
+     * @return Abonnement, das mit cancel() beendet werden muss
+     */
+    public Subscription subscribe(int capacity) {
+        Subscription s = new Subscription(Math.max(1, capacity));
+        subscriptions.add(s);
+        return s;
+    }
+    
+    /**
+     * @return true sofern Ereignisse mindestens einen Abonnenten erreichen
+     */
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+    
+    /**
+     * Veröffentlicht ein Ereignis zur angegebenen Kachel, sofern es
+     * Abonnenten gibt.
+     * 
+     * @param type einer der Werte TileEvent.QUEUED bis TileEvent.CANCELLED
+     * @param tile betroffene Kachel
+     * @param progress Anteil der berechneten Spalten zwischen 0 und 1
+     * @param isStarted true sofern die Kachel zuvor mit TileEvent.STARTED
+     * gemeldet wurde
+     */
+    public void publish(int type, Rendering tile, double progress,
+        boolean isStarted) {
+        if (subscriptions.isEmpty()) return;
+        
+        TileEvent e = new TileEvent(type, tile, tile.getCost(), progress,
+            type == TileEvent.FINISHED ? tile.time : 0, isStarted);
+        for (Subscription s: subscriptions) s.offer(e);
+    }
+}
@@ -0,0 +1,97 @@
+package mandelbrot;
+
+import util.Vector;
+import util.VectorRectangle;
+
+/**
+ * Beschreibt die Lage einer Kachel in einem globalen Quadtree über der
+ * komplexen Zahlenebene.
+ * Auf der Ebene level haben alle Kacheln die Seitenlänge rootSize / 2^level
+ * und die Kachel (tx, ty) überdeckt den Realteil von tx bis tx + 1 und den
+ * Imaginärteil von -(ty + 1) bis -ty in Vielfachen dieser Seitenlänge, wobei
+ * ty wie Bildschirmkoordinaten nach unten wächst. Da die Seitenlänge eine
+ * Zweierpotenz ist, werden alle Kanten exakt berechnet, sodass benachbarte
+ * Kacheln bitgenau aneinandergrenzen und Kacheln verschiedener Gitter
+ * derselben Ebene exakt einander zugeordnet werden können. Jede Kachel wird
+ * von genau vier Kacheln der nächstfeineren Ebene überdeckt.
+ */
+public class TileKey {
+    public static final double rootSize = 4; // Seitenlänge auf Ebene 0
+    
+    /**
+     * Berechnet die Seitenlänge der Kacheln einer Ebene.
+     * 
+     * @param level Ebene
+     * @return Seitenlänge in der komplexen Zahlenebene
+     */
+    public static double getTileSize(int level) {
+        return Math.scalb(rootSize, -level);
+    }
+    
+    /**
+     * Berechnet die feinste Ebene, deren Kacheln mindestens die angegebene
+     * Seitenlänge haben.
+     * 
+     * @param tileSize gewünschte Seitenlänge in der komplexen Zahlenebene
+     * @return Ebene
+     */
+    public static int getLevel(double tileSize) {
+        int level = (int)Math.floor(Math.log(rootSize / tileSize) / Math.log(2));
+        while (getTileSize(level + 1) >= tileSize) ++level;
+        while (getTileSize(level) < tileSize) --level;
+        return level;
+    }
+    
+    public final int level;
+    public final long tx;
+    public final long ty;
+    
+    /**
+     * Erzeugt eine neue Kachelposition.
+     * 
+     * @param level Ebene
+     * @param tx Spalte, wachsend in Richtung des Realteils
+     * @param ty Zeile, wachsend entgegen der Richtung des Imaginärteils
+     */
+    public TileKey(int level, long tx, long ty) {
+        this.level = level;
+        this.tx = tx;
+        this.ty = ty;
+    }
+    
+    /**
+     * @return das von der Kachel überdeckte Intervall
+     */
+    public VectorRectangle getInterval() {
+        double s = getTileSize(level);
+        
+        return new VectorRectangle(
+            new Vector(tx * s, -(ty + 1) * s),
+            new Vector((tx + 1) * s, -ty * s)
+        );
+    }
+    
+    /**
+     * @return die Kachel der nächstgröberen Ebene, die diese Kachel überdeckt
+     */
+    public TileKey getParent() {
+        return new TileKey(level - 1, Math.floorDiv(tx, 2), Math.floorDiv(ty, 2));
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof TileKey)) return false;
+        TileKey k = (TileKey)o;
+        return level == k.level && tx == k.tx && ty == k.ty;
+    }
+    
+    @Override
+    public int hashCode() {
+        return (int)(31 * (31 * level + (tx ^ (tx >>> 32))) + (ty ^ (ty >>> 32)));
+    }
+    
+    @Override
+    public String toString() {
+        return "TileKey(" + level + ", " + tx + ", " + ty + ")";
+    }
+}
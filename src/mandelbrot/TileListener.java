@@ -0,0 +1,16 @@
+package mandelbrot;
+
+/**
+ * Definiert einen Empfänger von Benachrichtigungen über fertig berechnete
+ * Kacheln. Die Benachrichtigung erfolgt in dem Thread, der die Kachel
+ * fertigstellt, und sollte daher nur wenig Rechenzeit beanspruchen.
+ */
+public interface TileListener {
+    /**
+     * Wird aufgerufen, sobald eine Kachel fertig berechnet oder durch
+     * Herunterskalieren zusammengesetzt wurde.
+     * 
+     * @param tile fertige Kachel
+     */
+    void tileFinished(Rendering tile);
+}
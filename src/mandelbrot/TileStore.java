@@ -0,0 +1,208 @@
+package mandelbrot;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Definiert einen gemeinsamen Speicher der Kacheln aller Ansichten.
+ * Kacheln werden durch ihren TileKey, ihre Pixelgröße, ihre Farbprojektion
+ * und ihre Iterationstiefe identifiziert. Fordern mehrere Kachelgitter
+ * dieselbe Kachel an, erhalten sie dasselbe Rendering-Objekt, sodass sich
+ * überschneidende Ansichten jede Kachel nur einmal berechnen.
+ * Jede Anforderung zählt als Referenz. Erst wenn die letzte Referenz
+ * freigegeben wird, wird die Kachel selbst freigegeben und ggf. ihre
+ * laufende Berechnung abgebrochen.
+ * Angemeldete TileListener werden über jede fertig berechnete Kachel des
+ * Speichers benachrichtigt. Die Ereignisse des Lebenszyklus aller Kacheln
+ * des Speichers werden über events verteilt.
+ * Die Kacheln beziehen ihre Pixelbilder aus dem BufferPool des Speichers und
+ * melden ihren Aufwand an dessen CostModel, sodass etwa eine Probeberechnung
+ * die gemeinsamen Instanzen nicht beeinflusst.
+ */
+public class TileStore implements TileListener {
+    private static final class Key {
+        final TileKey key;
+        final int width;
+        final int height;
+        final ColorProjection colorProjection;
+        final int iterations;
+        
+        Key(TileKey key, int width, int height,
+            ColorProjection colorProjection, int iterations) {
+            this.key = key;
+            this.width = width;
+            this.height = height;
+            this.colorProjection = colorProjection;
+            this.iterations = iterations;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key)o;
+            return key.equals(k.key) && width == k.width && height == k.height
+                && colorProjection == k.colorProjection
+                && iterations == k.iterations;
+        }
+        
+        @Override
+        public int hashCode() {
+            return ((key.hashCode() * 31 + width) * 31 + height) * 31
+                + iterations;
+        }
+    }
+    
+    private static final class Entry {
+        final Rendering tile;
+        int references = 0;
+        
+        Entry(Rendering tile) {
+            this.tile = tile;
+        }
+    }
+    
+    public final BufferPool pool;
+    public final CostModel costModel;
+    
+    private final Map<Key, Entry> entries = new HashMap<Key, Entry>();
+    
+    private long requests = 0;
+    private long hits = 0;
+    
+    private final List<TileListener> listeners
+        = new CopyOnWriteArrayList<TileListener>();
+    
+    public final TileEvents events = new TileEvents();
+    
+    /**
+     * Erzeugt einen neuen Speicher, der die gemeinsamen Instanzen von
+     * BufferPool und CostModel verwendet.
+     */
+    public TileStore() {
+        this(BufferPool.instance, CostModel.instance);
+    }
+    
+    /**
+     * Erzeugt einen neuen Speicher.
+     * 
+     * @param pool Vorrat, aus dem die Kacheln ihre Pixelbilder beziehen
+     * @param costModel Vorhersage des Aufwandes der Kacheln
+     */
+    public TileStore(BufferPool pool, CostModel costModel) {
+        this.pool = pool;
+        this.costModel = costModel;
+    }
+    
+    /**
+     * Liefert die angegebene Kachel und legt sie an, sofern sie noch nicht
+     * existiert. Die Referenz muss mit release() wieder freigegeben werden.
+     * 
+     * @param key Lage der Kachel
+     * @param width Breite der Kachel in Pixeln
+     * @param height Höhe der Kachel in Pixeln
+     * @param colorProjection zu verwendende Farbprojektion
+     * @param iterations zur Berechnung zu verwendende Iterationstiefe
+     * @return Kachel
+     */
+    public synchronized Rendering acquire(TileKey key, int width, int height,
+        ColorProjection colorProjection, int iterations) {
+        Key k = new Key(key, width, height, colorProjection, iterations);
+        Entry e = entries.get(k);
+        
+        ++requests;
+        if (e != null) ++hits;
+        else {
+            e = new Entry(new Rendering(width, height, key, colorProjection,
+                iterations));
+            e.tile.listener = this;
+            e.tile.events = events;
+            e.tile.pool = pool;
+            e.tile.costModel = costModel;
+            entries.put(k, e);
+        }
+        
+        ++e.references;
+        return e.tile;
+    }
+    
+    /**
+     * Gibt eine mit acquire() erhaltene Referenz auf die angegebene Kachel
+     * frei.
+     * 
+     * @param tile Kachel
+     */
+    public synchronized void release(Rendering tile) {
+        Key k = new Key(tile.key, tile.width, tile.height,
+            tile.colorProjection, tile.iterations);
+        Entry e = entries.get(k);
+        if (e == null || e.tile != tile) return;
+        
+        if (--e.references > 0) return;
+        
+        entries.remove(k);
+        tile.release();
+    }
+    
+    /**
+     * Liefert den nächstgelegenen fertig berechneten Vorfahren der angegebenen
+     * Kachel mit derselben Pixelgröße, Farbprojektion und Iterationstiefe,
+     * ohne dafür eine Referenz zu vergeben.
+     * 
+     * @param tile Kachel
+     * @param depth Anzahl der höchstens zu durchsuchenden gröberen Ebenen
+     * @return Vorfahre oder null, sofern keiner vorhanden ist
+     */
+    public synchronized Rendering getAncestor(Rendering tile, int depth) {
+        TileKey key = tile.key;
+        
+        for (int i = 0; i < depth; ++i) {
+            key = key.getParent();
+            Entry e = entries.get(new Key(key, tile.width, tile.height,
+                tile.colorProjection, tile.iterations));
+            if (e != null && e.tile.isDone()) return e.tile;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Meldet einen Empfänger für Benachrichtigungen über fertig berechnete
+     * Kacheln an.
+     * 
+     * @param l Empfänger
+     */
+    public void addListener(TileListener l) {
+        listeners.add(l);
+    }
+    
+    /**
+     * Meldet einen Empfänger wieder ab.
+     * 
+     * @param l Empfänger
+     */
+    public void removeListener(TileListener l) {
+        listeners.remove(l);
+    }
+    
+    @Override
+    public void tileFinished(Rendering tile) {
+        for (TileListener l: listeners) l.tileFinished(tile);
+    }
+    
+    /**
+     * @return Anzahl der gespeicherten Kacheln
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+    
+    /**
+     * @return Anteil der Anforderungen, die eine bereits vorhandene Kachel
+     * geliefert haben
+     */
+    public synchronized double getHitRate() {
+        return requests == 0 ? 0 : hits / (double)requests;
+    }
+}
@@ -3,6 +3,12 @@ package mandelbrot;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
 import util.ScreenProjection;
 import util.Vector;
 import util.VectorRectangle;
@@ -22,9 +28,8 @@ import util.VectorRectangle;
  *    auffällt, wenn Kacheln nämlich nur in dem Maße verschoben werden, dass
  *    keine noch nicht berechneten Kacheln ins Bild wandern oder sogar der
  *    Bildausschnitt außerhalb der Kacheln liegt.
- *  + Unter *scheduling* wird eine Methode implementiert, die die noch nicht
- *    zur Berechnung reservierte Kachel auswählt, die als nächstes berechnet
- *    werden soll.
+ *  + Unter *scheduling* wird die Priorität festgelegt, mit der eine Kachel
+ *    im Scheduler eingereiht ist.
  *  + Der Vollständigkeit halber ist auch TiledRendering genauso wie Rendering
  *    ausführbar. Unter *rendering* wird der Rendering-Prozess eines
  *    TiledRenderings defniert. Dieser sollte in der Regel nicht verwendet
@@ -35,109 +40,354 @@ import util.VectorRectangle;
  *    Bildausschnitt auf ein Graphics2D Objekt zeichnen. Dies verbraucht wenig
  *    Rechenzeit und kann in einer kontinuierlichen Darstellung für jeden Frame
  *    aufgerufen werden.
+ * Die Kacheln sind Kacheln einer festen Ebene des durch TileKey definierten
+ * globalen Quadtrees und werden in einem Ringpuffer gehalten: Die Kachel mit
+ * dem Index (tx, ty) liegt stets an der Stelle (tx mod tilesU, ty mod tilesV).
+ * Beim Verschieben werden daher nur die Stellen der herausfallenden Kacheln
+ * neu belegt.
+ * Die Kacheln werden aus einem gemeinsamen TileStore bezogen, sodass sich
+ * Kachelgitter verschiedener Ansichten übereinstimmende Kacheln teilen.
+ * Der Zustand des Gitters wird als unveränderlicher Grid-Schnappschuss über
+ * eine AtomicReference veröffentlicht. Jede Veränderung legt eine Kopie des
+ * Ringpuffers an und veröffentlicht sie mit einer um eins erhöhten Epoche,
+ * sodass Worker-Threads und Zeichenvorgänge ohne Sperren stets einen in sich
+ * stimmigen Zustand sehen. Verändernde Methoden dürfen nur von einem Thread
+ * aufgerufen werden.
+ * Jeder Zustand zählt die fertigen Kacheln und ihre Rechenzeit, sodass die
+ * Statistiken ohne Durchlaufen aller Kacheln abgefragt werden können. Dazu
+ * werden die fertigen Kacheln vor und nochmals nach seiner Veröffentlichung
+ * gezählt und danach wird er über jede fertig werdende Kachel
+ * benachrichtigt. Ein Merker je Stelle, der per Compare-and-Set gesetzt
+ * wird, sorgt dafür, dass jede Kachel genau einmal gezählt wird, auch wenn
+ * sie während der Veröffentlichung fertig wird.
+ * Solange eine Kachel nicht fertig ist, wird an ihrer Stelle der
+ * nächstgelegene fertige Vorfahre aus dem TileStore vergrößert gezeichnet,
+ * sodass beim Zoomen keine leeren Bereiche zu sehen sind.
  * Zur intendierten Verwendung der Klasse TiledRendering ist ein Thread-Pool
- * erforderlich, der Worker-Threads enthält, die immer wieder getWork()
- * aufrufen und ggf. zurückgelieferte ausführbare Objekte ausführen. Es spielt
- * dabei keinerlei Rolle wie viele Threads der Thread-Pool umfasst.
+ * erforderlich, der Worker-Threads enthält, die immer wieder Kacheln aus dem
+ * Scheduler entnehmen und ausführen, in den jede neu erzeugte Kachel
+ * eingereiht wird. Es spielt dabei keinerlei Rolle wie viele Threads der
+ * Thread-Pool umfasst.
  */
-public class TiledRendering implements Runnable {
-    public VectorRectangle interval; // aktueller Bildausschnitt
+public class TiledRendering implements Runnable, TileListener {
+    public volatile VectorRectangle interval; // aktueller Bildausschnitt
     
-    public final Vector nativeSize; // kleinstes durch die aktuelle Datenlage
-        // in gegebener Auflösung darstellbares Interval
+    public volatile Vector nativeSize; // kleinstes durch die aktuelle Datenlage
+        // in gegebener Auflösung darstellbares Interval, bei dessen
+        // Unterschreitung die nächstfeinere Ebene verwendet werden soll
     
-    public final int tileWidth = 100;
-    public final int tileHeight = 100;
+    public final int level; // Ebene des Quadtrees
+    public int rank = 0; // Rang innerhalb des Stapels, gröbere Stufe der
+        // Priorität
+    public TiledRendering coarser = null; // nächstgröbere Ebene zur
+        // Vorhersage des Aufwandes
+    public Vector focus = null; // Punkt, von dem aus der Abstand der Kacheln
+        // bemessen wird, null für die Mitte des Bildausschnittes
+    public Vector lead = null; // voraussichtliche Verschiebung des
+        // Bildausschnittes
+    public Vector cursor = null; // Mauspunkt, sofern er im Bildausschnitt
+        // liegt
     
-    public final int tilesU; // Kacheln in U-Richtung (Realteil-Achse)
-    public final int tilesV; // Kacheln in V-Richtung (Imaginärteil-Achse)
-    private Rendering[][] tiles;
-    public final int lowPriorityFrameU; // in tiles
-    public final int lowPriorityFrameV; // in tiles
+    public static final int maxPreviewDepth = 6; // Anzahl der gröberen
+        // Ebenen, in denen nach einer Vorschau gesucht wird
     
-    public final int totalWidth;
-    public final int totalHeight;
+    public final int tileWidth; // Breite einer Kachel in Pixeln
+    public final int tileHeight; // Höhe einer Kachel in Pixeln
     
-    public VectorRectangle totalInterval; // aktuell potenziell vorhandener
-        // Bildausschnitt
+    private final double tileSize; // Seitenlänge einer Kachel als Intervall
+    
+    /**
+     * Beschreibt einen unveränderlichen Zustand des Kachelgitters.
+     */
+    public static final class Grid {
+        public final long epoch; // fortlaufende Nummer des Zustandes
+        public final int tilesU; // Kacheln in U-Richtung (Realteil-Achse)
+        public final int tilesV; // Kacheln in V-Richtung (Imaginärteil-Achse)
+        public final long offsetU; // Index tx der linken Kachelspalte
+        public final long offsetV; // Index ty der oberen Kachelzeile
+        public final int lowPriorityFrameU; // in tiles
+        public final int lowPriorityFrameV; // in tiles
+        public final int totalWidth;
+        public final int totalHeight;
+        public final VectorRectangle totalInterval; // potenziell vorhandener
+            // Bildausschnitt
+        
+        private final Rendering[][] tiles; // Ringpuffer
+        private final AtomicInteger done = new AtomicInteger(); // fertige
+            // Kacheln
+        private final AtomicInteger time = new AtomicInteger(); // Rechenzeit
+            // der fertigen Kacheln in Millisekunden
+        private final AtomicIntegerArray counted; // 1 für jede Stelle, deren
+            // Kachel bereits gezählt wurde
+        
+        private Grid(long epoch, Rendering[][] tiles, long offsetU, long offsetV,
+            int lowPriorityFrameU, int lowPriorityFrameV, int tileWidth,
+            int tileHeight, VectorRectangle totalInterval) {
+            this.epoch = epoch;
+            this.tiles = tiles;
+            this.tilesU = tiles.length;
+            this.tilesV = tiles[0].length;
+            this.offsetU = offsetU;
+            this.offsetV = offsetV;
+            this.lowPriorityFrameU = lowPriorityFrameU;
+            this.lowPriorityFrameV = lowPriorityFrameV;
+            this.totalWidth = tilesU * tileWidth;
+            this.totalHeight = tilesV * tileHeight;
+            this.totalInterval = totalInterval;
+            this.counted = new AtomicIntegerArray(tilesU * tilesV);
+            
+            countAll();
+        }
+        
+        /**
+         * Zählt alle fertigen, noch nicht gezählten Kacheln.
+         */
+        private void countAll() {
+            for (int su = 0; su < tilesU; ++su) {
+                for (int sv = 0; sv < tilesV; ++sv) count(su, sv, tiles[su][sv]);
+            }
+        }
+        
+        /**
+         * Zählt die angegebene Kachel, sofern sie fertig ist, an der
+         * angegebenen Stelle liegt und dort noch nicht gezählt wurde.
+         */
+        private void count(int su, int sv, Rendering t) {
+            if (tiles[su][sv] != t || !t.isDone()
+                || !counted.compareAndSet(su * tilesV + sv, 0, 1)) return;
+            
+            done.incrementAndGet();
+            time.addAndGet(t.time);
+        }
+        
+        /**
+         * Liefert die Kachel an der angegebenen Stelle des Gitters.
+         * 
+         * @param u Spalte, wobei 0 die linke Spalte ist
+         * @param v Zeile, wobei 0 die obere Zeile ist
+         * @return Kachel
+         */
+        public Rendering getTile(int u, int v) {
+            return tiles[slot(offsetU + u, tilesU)][slot(offsetV + v, tilesV)];
+        }
+        
+        /**
+         * Liefert die Kachel mit dem angegebenen Index.
+         * 
+         * @param tx Spalte im Quadtree
+         * @param ty Zeile im Quadtree
+         * @return Kachel oder null, sofern sie nicht im Gitter liegt
+         */
+        public Rendering getTile(long tx, long ty) {
+            Rendering t = tiles[slot(tx, tilesU)][slot(ty, tilesV)];
+            return t.key.tx == tx && t.key.ty == ty ? t : null;
+        }
+        
+        private Rendering[][] copyTiles() {
+            Rendering[][] copy = new Rendering[tilesU][];
+            for (int u = 0; u < tilesU; ++u) copy[u] = tiles[u].clone();
+            return copy;
+        }
+    }
+    
+    private final AtomicReference<Grid> grid = new AtomicReference<Grid>();
     
     public final int iterations;
     public final ColorProjection colorProjection;
     
+    private final Scheduler scheduler;
+    private final TileStore store;
+    private volatile boolean isReleased = false;
+    
+    /**
+     * Erzeugt ein neues TiledRendering, dessen Ebene anhand des gewünschten
+     * Bildausschnittes gewählt wird.
+     * 
+     * @param width Breite in Pixeln
+     * @param height Höhe in Pixeln
+     * @param tileWidth Breite einer Kachel in Pixeln
+     * @param tileHeight Höhe einer Kachel in Pixeln
+     * @param frame Rahmendicke in Pixeln
+     * @param lowPriorityFrame Niedrigprioritätsrahmendicke in Pixeln
+     * @param scale Skalierungsfaktor, der angibt eine wie viel höhere
+     * Auflösung berechnet werden soll.
+     * @param interval gewünschter Bildausschnitt als Intervall der komplexen
+     * Zahlenebene
+     * @param colorProjection zu verwendende Farbprojektion
+     * @param iterations zur Berechnung zu verwendende Iterationstiefe
+     * @param scheduler Scheduler, in den neue Kacheln eingereiht werden
+     * @param store Speicher, aus dem die Kacheln bezogen werden
+     */
+    public TiledRendering(int width, int height, int tileWidth, int tileHeight,
+        int frame, int lowPriorityFrame, double scale, VectorRectangle interval,
+        ColorProjection colorProjection, int iterations, Scheduler scheduler,
+        TileStore store) {
+        this(width, height, tileWidth, tileHeight, frame, lowPriorityFrame,
+            scale, interval,
+            TileKey.getLevel(interval.getWidth() / width * tileWidth / scale),
+            colorProjection, iterations, scheduler, store);
+    }
+    
     /**
-     * Erzeugt ein neues TiledRendering.
+     * Erzeugt ein neues TiledRendering der angegebenen Ebene.
      * 
      * @param width Breite in Pixeln
      * @param height Höhe in Pixeln
+     * @param tileWidth Breite einer Kachel in Pixeln
+     * @param tileHeight Höhe einer Kachel in Pixeln
      * @param frame Rahmendicke in Pixeln
      * @param lowPriorityFrame Niedrigprioritätsrahmendicke in Pixeln
      * @param scale Skalierungsfaktor, der angibt eine wie viel höhere
      * Auflösung berechnet werden soll.
      * @param interval gewünschter Bildausschnitt als Intervall der komplexen
      * Zahlenebene
+     * @param level Ebene des Quadtrees
      * @param colorProjection zu verwendende Farbprojektion
      * @param iterations zur Berechnung zu verwendende Iterationstiefe
+     * @param scheduler Scheduler, in den neue Kacheln eingereiht werden
+     * @param store Speicher, aus dem die Kacheln bezogen werden
      */
-    public TiledRendering(int width, int height, int frame, int lowPriorityFrame,
-        double scale, VectorRectangle interval,
-        ColorProjection colorProjection, int iterations) {
+    public TiledRendering(int width, int height, int tileWidth, int tileHeight,
+        int frame, int lowPriorityFrame, double scale, VectorRectangle interval,
+        int level, ColorProjection colorProjection, int iterations,
+        Scheduler scheduler, TileStore store) {
         this.interval = interval;
+        this.level = level;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.tileSize = TileKey.getTileSize(level);
         
-        this.nativeSize = interval.getSize().divide(scale);
-        
-        this.tilesU = (int)(width * scale) /
-            tileWidth + ((int)((frame + lowPriorityFrame) * scale) / tileWidth) * 2;
-        this.tilesV = (int)(height * scale) /
-            tileHeight + ((int)((frame + lowPriorityFrame) * scale) / tileHeight) * 2;
-        this.tiles = new Rendering[tilesU][tilesV];
-        
-        this.lowPriorityFrameU = (int)Math.floor(lowPriorityFrame / (double)tileWidth);
-        this.lowPriorityFrameV = (int)Math.floor(lowPriorityFrame / (double)tileHeight);
-        
-        this.totalWidth = tilesU * tileWidth;
-        this.totalHeight = tilesV * tileHeight;
-        
-        ScreenProjection projection = new ScreenProjection(interval,
-            (int)(width * scale), (int)(height * scale));
-        
-        this.totalInterval = new VectorRectangle(
-            projection.projectFromScreen(
-                new Point(
-                    (int)(width * scale) / 2 - totalWidth / 2,
-                    (int)(height * scale) / 2 + totalHeight / 2
-                )
-            ),
-            projection.projectFromScreen(
-                new Point(
-                    (int)(width * scale) / 2 + totalWidth / 2,
-                    (int)(height * scale) / 2 - totalHeight / 2
-                )
-            )
-        );
+        this.nativeSize = getNativeSize(width, height, scale);
         
         this.iterations = iterations;
         this.colorProjection = colorProjection;
+        this.scheduler = scheduler;
+        this.store = store;
         
-        ScreenProjection totalProjection = new ScreenProjection(totalInterval,
-            totalWidth, totalHeight);
-        
-        for (int u = 0; u < tilesU; ++u) {
-            for (int v = 0; v < tilesV; ++v) {
-                tiles[u][v] = new Rendering(
-                                        tileWidth,
-                    tileHeight, new VectorRectangle(
-                            totalProjection.projectFromScreen(
-                                new Point(u * tileWidth, (v + 1) * tileHeight)
-                            ),
-                            totalProjection.projectFromScreen(
-                                new Point((u + 1) * tileWidth, v * tileHeight)
-                            )
-                    ),
-                    colorProjection, iterations
-                );
-                
+        int tilesU = countTiles(width, frame + lowPriorityFrame, scale, tileWidth);
+        int tilesV = countTiles(height, frame + lowPriorityFrame, scale, tileHeight);
+        Rendering[][] tiles = new Rendering[tilesU][tilesV];
+        
+        long offsetU = Math.round(interval.getCenter().getX() / tileSize - tilesU / 2d);
+        long offsetV = Math.round(-interval.getCenter().getY() / tileSize - tilesV / 2d);
+        
+        for (long tx = offsetU; tx < offsetU + tilesU; ++tx) {
+            for (long ty = offsetV; ty < offsetV + tilesV; ++ty) {
+                tiles[slot(tx, tilesU)][slot(ty, tilesV)] = createTile(tx, ty);
             }
         }
+        
+        store.addListener(this);
+        
+        publish(tiles, offsetU, offsetV,
+            (int)Math.floor(lowPriorityFrame / (double)tileWidth),
+            (int)Math.floor(lowPriorityFrame / (double)tileHeight));
+        
+        for (Rendering[] column: tiles) {
+            for (Rendering t: column) schedule(t);
+        }
+    }
+    
+    private Vector getNativeSize(int width, int height, double scale) {
+        return new Vector(width, height).multiply(tileSize * scale / 2 / tileWidth);
+    }
+    
+    private static int slot(long index, int tiles) {
+        return (int)Math.floorMod(index, (long)tiles);
+    }
+    
+    private Rendering createTile(long tx, long ty) {
+        return store.acquire(new TileKey(level, tx, ty), tileWidth, tileHeight,
+            colorProjection, iterations);
+    }
+    
+    /**
+     * Reiht eine Kachel beim Scheduler ein und meldet dies, sofern ihre
+     * Berechnung noch aussteht und sie nicht bereits von einem anderen
+     * Kachelgitter eingereiht wurde.
+     */
+    private void schedule(Rendering t) {
+        scheduler.add(this, t);
+        t.queued();
+    }
+    
+    /**
+     * Veröffentlicht einen neuen Zustand des Gitters. Der übergebene
+     * Ringpuffer darf danach nicht mehr verändert werden. Kacheln, die
+     * fertig werden, während noch der vorherige Zustand veröffentlicht ist,
+     * werden durch erneutes Zählen nach der Veröffentlichung erfasst.
+     */
+    private void publish(Rendering[][] tiles, long offsetU, long offsetV,
+        int lowPriorityFrameU, int lowPriorityFrameV) {
+        Grid previous = grid.get();
+        Grid g = new Grid(previous == null ? 0 : previous.epoch + 1, tiles,
+            offsetU, offsetV, lowPriorityFrameU, lowPriorityFrameV,
+            tileWidth, tileHeight, getRasterInterval(offsetU, offsetV, tiles.length, tiles[0].length));
+        grid.set(g);
+        g.countAll();
+    }
+    
+    /**
+     * @return aktueller Zustand des Gitters
+     */
+    public Grid getGrid() {
+        return grid.get();
+    }
+    
+    private VectorRectangle getRasterInterval(long offsetU, long offsetV,
+        int tilesU, int tilesV) {
+        return new VectorRectangle(
+            new Vector(offsetU * tileSize, -(offsetV + tilesV) * tileSize),
+            new Vector((offsetU + tilesU) * tileSize, -offsetV * tileSize)
+        );
+    }
+    
+    /**
+     * Liefert die Kachel an der angegebenen Stelle des Gitters.
+     * 
+     * @param u Spalte, wobei 0 die linke Spalte ist
+     * @param v Zeile, wobei 0 die obere Zeile ist
+     * @return Kachel
+     */
+    public Rendering getTile(int u, int v) {
+        return grid.get().getTile(u, v);
+    }
+    
+    /**
+     * Liefert die Kachel mit dem angegebenen Index der Ebene dieses Gitters.
+     * 
+     * @param tx Spalte im Quadtree
+     * @param ty Zeile im Quadtree
+     * @return Kachel oder null, sofern sie nicht im Gitter liegt
+     */
+    public Rendering getTile(long tx, long ty) {
+        Grid g = grid.get();
+        return g == null ? null : g.getTile(tx, ty);
+    }
+    
+    private static int countTiles(int size, int frame, double scale, int tileSize) {
+        return (int)(size * scale) / tileSize + ((int)(frame * scale) / tileSize) * 2;
+    }
+    
+    /**
+     * Berechnet den Speicherbedarf der Pixelbilder eines TiledRenderings mit
+     * den angegebenen Parametern für den Fall, dass alle Kacheln berechnet
+     * und nicht einfarbig sind.
+     * 
+     * @param width Breite in Pixeln
+     * @param height Höhe in Pixeln
+     * @param tileWidth Breite einer Kachel in Pixeln
+     * @param tileHeight Höhe einer Kachel in Pixeln
+     * @param frame Rahmendicke in Pixeln
+     * @param lowPriorityFrame Niedrigprioritätsrahmendicke in Pixeln
+     * @param scale Skalierungsfaktor
+     * @return Speicherbedarf in Bytes
+     */
+    public static long estimateBytes(int width, int height, int tileWidth,
+        int tileHeight, int frame, int lowPriorityFrame, double scale) {
+        return 4L * tileWidth * tileHeight
+            * countTiles(width, frame + lowPriorityFrame, scale, tileWidth)
+            * countTiles(height, frame + lowPriorityFrame, scale, tileHeight);
     }
     
     /*** rearanging ***/
@@ -153,55 +403,32 @@ public class TiledRendering implements Runnable {
     public void shift(int du, int dv) {
         if (du == 0 && dv == 0) return;
         
-        Rendering[][] newTiles = new Rendering[tilesU][tilesV];
-        
-        totalInterval = new VectorRectangle(
-            totalInterval.getBottomLeft().plus(
-                new Vector(
-                    du * tiles[0][0].interval.getWidth(),
-                    -dv * tiles[0][0].interval.getHeight()
-                )
-            ),
-            totalInterval.getTopRight().plus(
-                new Vector(
-                    du * tiles[0][0].interval.getWidth(),
-                    -dv * tiles[0][0].interval.getHeight()
-                )
-            )
-        );
+        Grid g = grid.get();
+        long newOffsetU = g.offsetU + du;
+        long newOffsetV = g.offsetV + dv;
         
-        ScreenProjection totalProjection = new ScreenProjection(totalInterval,
-            totalWidth, totalHeight);
+        Rendering[][] tiles = g.copyTiles();
+        List<Rendering> dropped = new ArrayList<Rendering>();
+        List<Rendering> created = new ArrayList<Rendering>();
         
-        for (int u = 0; u < tilesU; ++u) {
-            for (int v = 0; v < tilesV; ++v) {
-                if (u + du >= 0 && u + du < tilesU && v + dv >= 0 && v + dv < tilesV) {
-                    newTiles[u][v] = tiles[u + du][v + dv];
-                }
-                else {
-                    newTiles[u][v] = new Rendering(
-                                                tileWidth,
-                        tileHeight, new VectorRectangle(
-                                totalProjection.projectFromScreen(
-                                    new Point(
-                                        u * tileWidth,
-                                        (v + 1) * tileHeight
-                                    )
-                                ),
-                                totalProjection.projectFromScreen(
-                                    new Point(
-                                        (u + 1) * tileWidth,
-                                        v * tileHeight
-                                    )
-                                )
-                        ),
-                        colorProjection, iterations
-                    );
+        for (int su = 0; su < g.tilesU; ++su) {
+            long tx = newOffsetU + Math.floorMod(su - newOffsetU, (long)g.tilesU);
+            
+            for (int sv = 0; sv < g.tilesV; ++sv) {
+                long ty = newOffsetV + Math.floorMod(sv - newOffsetV, (long)g.tilesV);
+                
+                if (tiles[su][sv].key.tx != tx || tiles[su][sv].key.ty != ty) {
+                    dropped.add(tiles[su][sv]);
+                    tiles[su][sv] = createTile(tx, ty);
+                    created.add(tiles[su][sv]);
                 }
             }
         }
         
-        tiles = newTiles;
+        publish(tiles, newOffsetU, newOffsetV, g.lowPriorityFrameU, g.lowPriorityFrameV);
+        
+        for (Rendering t: dropped) store.release(t);
+        for (Rendering t: created) schedule(t);
     }
     
     /**
@@ -209,153 +436,294 @@ public class TiledRendering implements Runnable {
      * Bildausschnitt möglichst in der mitte des Gitters liegt.
      */
     public void recenter() {
+        VectorRectangle interval = this.interval;
+        VectorRectangle totalInterval = grid.get().totalInterval;
+        
         double paddingTop = (totalInterval.getTop() - interval.getTop())
-            / tiles[0][0].interval.getHeight();
+            / tileSize;
         double paddingBottom = (interval.getBottom() - totalInterval.getBottom())
-            / tiles[0][0].interval.getHeight();
+            / tileSize;
         
         if (Math.abs(Math.floor(paddingTop) - Math.floor(paddingBottom)) >= 2) {
             shift(0, (int)Math.floor((paddingTop - paddingBottom) / 2));
         }
         
+        totalInterval = grid.get().totalInterval;
         double paddingLeft = (interval.getLeft() - totalInterval.getLeft())
-            / tiles[0][0].interval.getWidth();
+            / tileSize;
         double paddingRight = (totalInterval.getRight() - interval.getRight())
-            / tiles[0][0].interval.getWidth();
+            / tileSize;
         
         if (Math.abs(Math.floor(paddingLeft) - Math.floor(paddingRight)) >= 2) {
             shift((int)Math.floor((paddingLeft - paddingRight) / 2), 0);
         }
     }
     
-    /*** scheduling ***/
+    /**
+     * Passt das Kachelgitter an eine neue Größe an, ohne den Bildausschnitt,
+     * die Auflösung oder die Lage der Kacheln zu verändern. Alle Kacheln, die
+     * auch im neuen Gitter liegen, werden weiterverwendet, sodass nur der neu
+     * hinzukommende Bereich berechnet werden muss. Das neue Gitter wird dabei
+     * möglichst mittig um den gewählten Bildausschnitt gelegt.
+     * 
+     * @param width Breite in Pixeln
+     * @param height Höhe in Pixeln
+     * @param frame Rahmendicke in Pixeln
+     * @param lowPriorityFrame Niedrigprioritätsrahmendicke in Pixeln
+     * @param scale Skalierungsfaktor, der angibt eine wie viel höhere
+     * Auflösung berechnet werden soll.
+     */
+    public void resize(int width, int height, int frame, int lowPriorityFrame,
+        double scale) {
+        nativeSize = getNativeSize(width, height, scale);
+        
+        int newTilesU = countTiles(width, frame + lowPriorityFrame, scale, tileWidth);
+        int newTilesV = countTiles(height, frame + lowPriorityFrame, scale, tileHeight);
+        
+        long newOffsetU = Math.round(interval.getCenter().getX() / tileSize - newTilesU / 2d);
+        long newOffsetV = Math.round(-interval.getCenter().getY() / tileSize - newTilesV / 2d);
+        
+        Grid g = grid.get();
+        Rendering[][] newTiles = new Rendering[newTilesU][newTilesV];
+        List<Rendering> dropped = new ArrayList<Rendering>();
+        List<Rendering> created = new ArrayList<Rendering>();
+        
+        for (int su = 0; su < g.tilesU; ++su) {
+            for (int sv = 0; sv < g.tilesV; ++sv) {
+                Rendering t = g.tiles[su][sv];
+                TileKey k = t.key;
+                
+                if (k.tx >= newOffsetU && k.tx < newOffsetU + newTilesU
+                    && k.ty >= newOffsetV && k.ty < newOffsetV + newTilesV) {
+                    newTiles[slot(k.tx, newTilesU)][slot(k.ty, newTilesV)] = t;
+                }
+                else dropped.add(t);
+            }
+        }
+        
+        for (long tx = newOffsetU; tx < newOffsetU + newTilesU; ++tx) {
+            for (long ty = newOffsetV; ty < newOffsetV + newTilesV; ++ty) {
+                int su = slot(tx, newTilesU);
+                int sv = slot(ty, newTilesV);
+                
+                if (newTiles[su][sv] == null) {
+                    newTiles[su][sv] = createTile(tx, ty);
+                    created.add(newTiles[su][sv]);
+                }
+            }
+        }
+        
+        publish(newTiles, newOffsetU, newOffsetV,
+            (int)Math.floor(lowPriorityFrame / (double)tileWidth),
+            (int)Math.floor(lowPriorityFrame / (double)tileHeight));
+        
+        for (Rendering t: dropped) store.release(t);
+        for (Rendering t: created) schedule(t);
+    }
+    
+    /**
+     * Gibt alle Kacheln frei und bricht die laufenden Berechnungen derjenigen
+     * Kacheln ab, die von keinem anderen Kachelgitter mehr verwendet werden.
+     * Das TiledRendering darf danach nicht mehr verwendet werden.
+     */
+    public void release() {
+        isReleased = true;
+        store.removeListener(this);
+        
+        for (Rendering[] column: grid.get().tiles) {
+            for (Rendering t: column) store.release(t);
+        }
+    }
     
     /**
-     * Sucht die nächste zu berechnende Aufgabe und reserviert diese.
+     * @param t Kachel
+     * @return true sofern die Kachel in diesem nicht freigegebenen Gitter
+     * liegt
+     */
+    public boolean contains(Rendering t) {
+        return !isReleased && getTile(t.key.tx, t.key.ty) == t;
+    }
+    
+    /**
+     * Übernimmt alle Kacheln, deren vier Kacheln der nächstfeineren Ebene im
+     * angegebenen TiledRendering fertig berechnet sind, durch Herunterskalieren,
+     * sodass nur die übrigen Kacheln berechnet werden müssen.
      * 
-     * @param seed gleich verteilter Wert, der für jeden Thread unterschiedlich
-     * sein sollte, keine wesentliche Rolle spielt und nur zu
-     * Optimierungszwecken der Lastverteilung benötigt wird
-     * @param skipLowPriority Angabe, ob der niedrigprioritäre Bereich als
-     * mögliche Arbeitsquelle mit einbezogen werden soll
-     * @return ein ausführbares Objekt oder null falls es nichts zu tun gibt
+     * @param finer TiledRendering der nächstfeineren Ebene mit derselben
+     * Farbprojektion, Iterationstiefe und Kachelgröße
      */
-    public Runnable getWork(int seed, boolean skipLowPriority) {
-        int ou = skipLowPriority ? lowPriorityFrameU : 0;
-        int ov = skipLowPriority ? lowPriorityFrameV : 0;
-        int tu = skipLowPriority ? tilesU - 2 * lowPriorityFrameU : tilesU;
-        int tv = skipLowPriority ? tilesV - 2 * lowPriorityFrameV : tilesV;
-        
-        int u = tu / 2;
-        int v = tv / 2;
-        int w = 1;
-        int h = 1;
-        
-        while (true) {
-            for (int c = 0 + seed; c < 4 + seed; ++c) {
-                switch (c % 4) {
-                    case 0:
-                        for (int i = 0; i < w; ++i) {
-                            if (tiles[ou + u + i][ov + v].tryToReserve()) {
-                                return tiles[ou + u + i][ov + v];
-                            }
-                        }
-                        break;
-                        
-                    case 1:
-                        for (int i = 1; i < h; ++i) {
-                            if (tiles[ou + u + w - 1][ov + v + i].tryToReserve()) {
-                                return tiles[ou + u + w - 1][ov + v + i];
-                            }
-                        }
-                        break;
-                        
-                    case 2:
-                        for (int i = w - 2; i >= 0; --i) {
-                            if (tiles[ou + u + i][ov + v + h - 1].tryToReserve()) {
-                                return tiles[ou + u + i][ov + v + h - 1];
-                            }
-                        }
-                        break;
-                        
-                    case 3:
-                        for (int i = h - 2; i >= 0; --i) {
-                            if (tiles[ou + u][ov + v + i].tryToReserve()) {
-                                return tiles[ou + u][ov + v + i];
-                            }
-                        }
-                        break;
+    public void seed(TiledRendering finer) {
+        if (finer.level != level + 1 || finer.colorProjection != colorProjection
+            || finer.iterations != iterations || finer.tileWidth != tileWidth
+            || finer.tileHeight != tileHeight) return;
+        
+        List<Rendering> sources = new ArrayList<Rendering>();
+        
+        for (Rendering[] column: grid.get().tiles) {
+            for (Rendering tile: column) {
+                TileKey k = tile.key;
+                
+                sources.clear();
+                
+                for (int c = 0; c < 4; ++c) {
+                    Rendering t = finer.getTile(2 * k.tx + c % 2, 2 * k.ty + c / 2);
+                    if (t == null || !t.isDone()) break;
+                    sources.add(t);
                 }
+                
+                if (sources.size() == 4) tile.seed(sources);
             }
-            
-            if (u == 0 && v == 0 && w == tu && h == tv) return null;
-            
-            u = Math.max(0, u - 1);
-            v = Math.max(0, v - 1);
-            w = Math.min(tu, w + 2);
-            h = Math.min(tv, h + 2);
         }
     }
     
+    /*** scheduling ***/
+    
+    /**
+     * Berechnet die Priorität, mit der die angegebene Kachel im Scheduler
+     * eingereiht wird. Kleinere Werte bedeuten eine höhere Priorität.
+     * Maßgeblich sind zuerst, ob die Kachel im niedrigprioritären Rahmen
+     * liegt, dann der Rang des TiledRenderings, dann, ob die Kachel den
+     * Bildausschnitt überschneidet, und zuletzt der auf ganze Kacheln
+     * gerundete Abstand der Kachel zum Mauspunkt bzw. für Kacheln außerhalb
+     * des Bildausschnittes oder ohne Mauspunkt zum Fokuspunkt. Kacheln des
+     * niedrigprioritären Rahmens, in die sich der Bildausschnitt
+     * voraussichtlich hineinbewegt, werden wie die übrigen Kacheln behandelt.
+     * 
+     * @param t Kachel dieses TiledRenderings
+     * @return Priorität
+     */
+    public double getPriority(Rendering t) {
+        VectorRectangle interval = this.interval;
+        Grid g = grid.get();
+        long u = t.key.tx - g.offsetU;
+        long v = t.key.ty - g.offsetV;
+        
+        boolean lowPriority = u < g.lowPriorityFrameU || u >= g.tilesU - g.lowPriorityFrameU
+            || v < g.lowPriorityFrameV || v >= g.tilesV - g.lowPriorityFrameV;
+        
+        if (lowPriority && lead != null
+            && t.interval.getIntersectionArea(interval.plus(lead)) > 0) {
+            lowPriority = false;
+        }
+        
+        boolean visible = t.interval.getIntersectionArea(interval) > 0;
+        
+        Vector center = visible && cursor != null ? cursor
+            : focus != null ? focus : interval.getCenter();
+        Vector c = t.interval.getCenter().minus(center);
+        double ring = Math.floor(Math.max(Math.abs(c.getX()), Math.abs(c.getY()))
+            / tileSize + 0.5);
+        
+        return ((lowPriority ? 128 : 0) + 2 * rank + (visible ? 0 : 1)) * 65536d + ring;
+    }
+    
     /*** rendering ***/
     
     @Override
     public void run() {
-        Runnable r;
-        while ((r = getWork(0, false)) != null) r.run();
+        for (Rendering[] column: grid.get().tiles) {
+            for (Rendering t: column) {
+                if (t.tryToReserve()) t.run();
+            }
+        }
     }
     
     /*** statistics ***/
     
+    @Override
+    public void tileFinished(Rendering tile) {
+        Grid g = grid.get();
+        if (g == null) return;
+        
+        g.count(slot(tile.key.tx, g.tilesU), slot(tile.key.ty, g.tilesV), tile);
+    }
+    
     /**
-     * Berechnet die gesamte für alle aktuellen schon berechneten Kacheln
+     * Liefert die gesamte für alle aktuellen schon berechneten Kacheln
      * verwendete Rechenzeit.
      * 
      * @return Rechenzeit in Millisekunden.
      */
     public int getTotalTime() {
-        int t = 0;
-        
-        for (int u = 0; u < tilesU; ++u) {
-            for (int v = 0; v < tilesV; ++v) {
-                t += tiles[u][v].time;
-            }
-        }
-        
-        return t;
+        return grid.get().time.get();
     }
     
     /**
-     * Berechnet den Anteil der aktuellen fertig berechneten Kacheln an der
+     * Liefert den Anteil der aktuellen fertig berechneten Kacheln an der
      * Gesamtheit der Kacheln dieses TiledRenderings.
      * 
      * @return Fertigkeit zwischen 0 und 1
      */
     public double getCompleteness() {
-        int c = 0;
-        
-        for (int u = 0; u < tilesU; ++u) {
-            for (int v = 0; v < tilesV; ++v) {
-                if (tiles[u][v].time != 0) ++c;
+        Grid g = grid.get();
+        return g.done.get() / (double)(g.tilesU * g.tilesV);
+    }
+    
+    /*** drawing ***/
+    
+    /**
+     * Liefert die Kachel, deren vergrößerter Ausschnitt anstelle der
+     * angegebenen, noch nicht fertigen Kachel gezeichnet werden kann.
+     * 
+     * @param t Kachel dieses TiledRenderings
+     * @return nächstgelegener fertiger Vorfahre oder null, sofern keiner
+     * vorhanden ist
+     */
+    public Rendering getPreview(Rendering t) {
+        return store.getAncestor(t, maxPreviewDepth);
+    }
+    
+    /**
+     * Zeichnet die angegebene Kachel oder, solange sie nicht fertig ist, den
+     * entsprechenden Ausschnitt ihrer Vorschau in das angegebene Rechteck.
+     * 
+     * @param g das Graphics2D-Objekt, auf das gezeichnet werden soll
+     * @param t Kachel dieses TiledRenderings
+     * @param x x-Koordinate in Pixeln
+     * @param y y-Koordinate in Pixeln
+     * @param width Breite in Pixeln
+     * @param height Höhe in Pixeln
+     * @return Ebene der gezeichneten Kachel bzw. Vorschau oder
+     * Integer.MIN_VALUE, sofern nur eine leere Kachel gezeichnet wurde
+     */
+    public int drawTile(Graphics2D g, Rendering t, int x, int y, int width,
+        int height) {
+        if (!t.isDone()) {
+            Rendering p = getPreview(t);
+            if (p != null && p.drawPart(g, x, y, width, height, t.interval)) {
+                return p.key.level;
             }
         }
         
-        return c / (double)(tilesU * tilesV);
+        boolean isDone = t.isDone();
+        t.draw(g, x, y, width, height);
+        return isDone ? t.key.level : Integer.MIN_VALUE;
     }
     
-    /*** drawing ***/
-    
-    private void draw(Graphics2D g, int x, int y, int width, int height,
+    /**
+     * Zeichnet den angegebenen Bildausschnitt, soweit er durch die Kacheln
+     * abgedeckt ist. Kacheln außerhalb des Clip-Bereiches werden
+     * übersprungen, nicht fertige Kacheln durch ihre Vorschau ersetzt.
+     * 
+     * @param g das Graphics2D-Objekt, auf das gezeichnet werden soll
+     * @param x x-Koordinate, an der das Bild gezeichnet werden soll in Pixeln
+     * @param y y-Koordinate, an der das Bild gezeichnet werden soll in Pixeln
+     * @param width Breite des zu zeichnenden Bildes in Pixeln
+     * @param height Höhe des zu zeichnenden Bildes in Pixeln
+     * @param interval zu zeichnender Bildausschnitt
+     */
+    public void draw(Graphics2D g, int x, int y, int width, int height,
         VectorRectangle interval) {
         ScreenProjection projection = new ScreenProjection(interval, width, height);
+        Rectangle clip = g.getClipBounds();
         
-        for (int u = 0; u < tilesU; ++u) {
-            for (int v = 0; v < tilesV; ++v) {
+        for (Rendering[] column: grid.get().tiles) {
+            for (Rendering t: column) {
                 Point tl = projection.projectToScreen(
-                    tiles[u][v].interval.getTopLeft()
+                    t.interval.getTopLeft()
                 );
                 Point br = projection.projectToScreen(
-                    tiles[u][v].interval.getBottomRight()
+                    t.interval.getBottomRight()
                 );
                 
                 if (br.getX() < 0) continue;
@@ -363,12 +731,14 @@ public class TiledRendering implements Runnable {
                 if (tl.getX() > width) continue;
                 if (tl.getY() > height) continue;
                 
-                g.drawImage(tiles[u][v],
+                if (clip != null && !clip.intersects(x + tl.getX(), y + tl.getY(),
+                    br.getX() - tl.getX(), br.getY() - tl.getY())) continue;
+                
+                drawTile(g, t,
                     x + (int)tl.getX(),
                     y + (int)tl.getY(),
                     (int)br.getX() - (int)tl.getX(),
-                    (int)br.getY() - (int)tl.getY(),
-                    null
+                    (int)br.getY() - (int)tl.getY()
                 );
             }
         }
@@ -397,6 +767,8 @@ public class TiledRendering implements Runnable {
      * @param height Höhe des zu zeichnenden Bildes in Pixeln
      */
     public void drawDebug(Graphics2D g, int x, int y, int width, int height) {
+        VectorRectangle interval = this.interval;
+        VectorRectangle totalInterval = grid.get().totalInterval;
         draw(g, x, y, width, height, totalInterval);
 
         ScreenProjection totalProjection = new ScreenProjection(totalInterval,
@@ -0,0 +1,60 @@
+package mandelbrot;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Beschreibt den Inhalt einer einfarbigen Kachel, also einer Kachel, deren
+ * Pixel alle dieselbe Iterationszahl und damit dieselbe Farbe haben.
+ * Da solche Kacheln (z.B. vollständig innerhalb der Mandelbrotmenge) sehr
+ * häufig vorkommen, existiert für jede Kombination aus Iterationszahl und Farbe
+ * genau ein Objekt, das von allen entsprechenden Kacheln geteilt wird und
+ * statt eines Pixelbildes mit einem einzigen fillRect gezeichnet wird.
+ */
+public class UniformTile {
+    private static final Map<Long, UniformTile> instances
+        = new HashMap<Long, UniformTile>();
+    
+    /**
+     * Liefert das gemeinsam genutzte Objekt für die angegebene Kombination.
+     * 
+     * @param value Iterationszahl aller Pixel der Kachel
+     * @param rgb Farbe aller Pixel der Kachel
+     * @return einfarbiger Kachelinhalt
+     */
+    public static synchronized UniformTile get(int value, int rgb) {
+        Long key = ((long)value << 32) | (rgb & 0xffffffffL);
+        UniformTile t = instances.get(key);
+        
+        if (t == null) {
+            t = new UniformTile(value, new Color(rgb));
+            instances.put(key, t);
+        }
+        
+        return t;
+    }
+    
+    public final int value;
+    public final Color color;
+    
+    private UniformTile(int value, Color color) {
+        this.value = value;
+        this.color = color;
+    }
+    
+    /**
+     * Zeichnet den Kachelinhalt in das angegebene Rechteck.
+     * 
+     * @param g das Graphics2D-Objekt, auf das gezeichnet werden soll
+     * @param x x-Koordinate in Pixeln
+     * @param y y-Koordinate in Pixeln
+     * @param width Breite in Pixeln
+     * @param height Höhe in Pixeln
+     */
+    public void draw(Graphics2D g, int x, int y, int width, int height) {
+        g.setColor(color);
+        g.fillRect(x, y, width, height);
+    }
+}
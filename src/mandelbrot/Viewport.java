@@ -0,0 +1,332 @@
+package mandelbrot;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import util.FrameStatistics;
+import util.Vector;
+import util.VectorRectangle;
+
+/**
+ * Definiert eine Ansicht mit eigenem Bildausschnitt, die von dem gemeinsamen
+ * Datenmodell Mandelbrot berechnet wird.
+ * Jede Ansicht besitzt einen eigenen Stapel von Kachelgittern, die ihre
+ * Kacheln jedoch aus dem gemeinsamen TileStore beziehen und im gemeinsamen
+ * Scheduler von denselben Worker-Threads berechnen lassen. Überschneiden sich
+ * die Bildausschnitte mehrerer Ansichten, wird jede Kachel daher nur einmal
+ * berechnet.
+ * Der Bildausschnitt interval wird unabhängig von den Kachelgittern geführt.
+ * Verschieben und Zoomen verändern nur ihn, während der Aufbau und die
+ * Umstrukturierung der Kachelgitter im Thread des Datenmodells erfolgen.
+ * Die Kacheln der aktiven Ansicht werden denen der übrigen sichtbaren
+ * Ansichten vorgezogen, Kacheln verborgener Ansichten werden zuletzt
+ * berechnet.
+ */
+public class Viewport {
+    public final Mandelbrot mandelbrot;
+    
+    public volatile int width = 400;
+    public volatile int height = 300;
+    
+    public volatile VectorRectangle interval; // aktueller Bildausschnitt
+    
+    public volatile Vector mousePoint = null; // Mauspunkt in der komplexen Zahlenebene
+    private Vector rankedMousePoint = null; // Mauspunkt der letzten
+        // Ausrichtung der Prioritäten
+    
+    public final MotionEstimator motion = new MotionEstimator();
+    
+    public final FrameStatistics frameTimes = new FrameStatistics(256); // der
+        // Darstellung in Millisekunden
+    public final FrameStatistics paintTimes = new FrameStatistics(256); // in
+        // Millisekunden
+    
+    public volatile RenderingPyramid pyramid; // null, solange die Ansicht
+        // noch nicht aufgebaut ist
+    
+    private volatile boolean isVisible = true;
+    private volatile boolean isClosed = false;
+    
+    private final AtomicBoolean isRegridPending = new AtomicBoolean(false);
+    
+    /**
+     * Erzeugt eine neue Ansicht. Ihre Kachelgitter werden erst mit rebuild()
+     * angelegt.
+     * 
+     * @param mandelbrot Datenmodell, das die Ansicht berechnet
+     * @param interval anfänglicher Bildausschnitt
+     */
+    Viewport(Mandelbrot mandelbrot, VectorRectangle interval) {
+        this.mandelbrot = mandelbrot;
+        this.interval = interval;
+    }
+    
+    /*** priorities ***/
+    
+    /**
+     * Liefert den Rang, um den die Kacheln dieser Ansicht gegenüber denen der
+     * aktiven Ansicht zurückgestellt werden.
+     * 
+     * @return 0 für die aktive Ansicht, 1 für die übrigen sichtbaren und 32
+     * für verborgene Ansichten
+     */
+    public int getRankOffset() {
+        if (!isVisible) return 32;
+        return mandelbrot.getActiveViewport() == this ? 0 : 1;
+    }
+    
+    /**
+     * Legt fest, ob die Ansicht sichtbar ist, und richtet die Prioritäten
+     * neu aus.
+     * 
+     * @param isVisible true sofern die Ansicht sichtbar ist
+     */
+    public void setVisible(boolean isVisible) {
+        if (this.isVisible == isVisible) return;
+        this.isVisible = isVisible;
+        prioritize();
+    }
+    
+    /**
+     * Richtet die Prioritäten der Kacheln dieser Ansicht im Hintergrund neu
+     * aus.
+     */
+    void prioritize() {
+        mandelbrot.regrid(new Runnable() {
+            @Override
+            public void run() {
+                if (!isClosed && pyramid != null) pyramid.prioritize();
+            }
+        });
+    }
+    
+    /*** caching ***/
+    
+    /**
+     * Veranlasst, dass die Kachelgitter im Hintergrund an den aktuellen
+     * Bildausschnitt angepasst werden. Mehrere Anforderungen vor der
+     * Anpassung werden dabei zusammengefasst.
+     */
+    private void requestRegrid() {
+        if (!isRegridPending.compareAndSet(false, true)) return;
+        
+        mandelbrot.regrid(new Runnable() {
+            @Override
+            public void run() {
+                isRegridPending.set(false);
+                if (!isClosed && pyramid != null) follow();
+            }
+        });
+    }
+    
+    /**
+     * Passt die Kachelgitter an den aktuellen Bildausschnitt an und wechselt
+     * dazu ggf. auch über mehrere Ebenen hinweg die aktuelle Ebene.
+     */
+    private void follow() {
+        VectorRectangle interval = this.interval;
+        
+        for (int i = 0; i < 64; ++i) {
+            TiledRendering current = pyramid.getCurrent();
+            current.interval = interval;
+            
+            if (interval.getWidth() < current.nativeSize.getX()
+                || interval.getHeight() < current.nativeSize.getY()) {
+                pyramid.zoomIn();
+            }
+            else if (interval.getWidth() > current.getGrid().totalInterval.getSize().multiply(0.9).getX()
+                || interval.getHeight() > current.getGrid().totalInterval.getSize().multiply(0.9).getY()) {
+                pyramid.zoomOut();
+            }
+            else {
+                current.recenter();
+                pyramid.follow();
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Erzeugt ein TiledRendering mit den aktuellen Parametern.
+     * 
+     * @param interval gewünschter Bildausschnitt
+     * @return erzeugtes TiledRendering
+     */
+    TiledRendering createTiledRendering(VectorRectangle interval) {
+        Settings s = mandelbrot.settings;
+        return new TiledRendering(width, height, s.tileSize, s.tileSize,
+            s.frame, mandelbrot.getLowPriorityFrame(), mandelbrot.getScaleup(),
+            interval, mandelbrot.colorProjection, mandelbrot.iterations,
+            mandelbrot.scheduler, mandelbrot.store);
+    }
+    
+    /**
+     * Erzeugt ein TiledRendering der angegebenen Ebene mit den aktuellen
+     * Parametern.
+     * 
+     * @param interval gewünschter Bildausschnitt
+     * @param level Ebene des Quadtrees
+     * @return erzeugtes TiledRendering
+     */
+    TiledRendering createTiledRendering(VectorRectangle interval, int level) {
+        Settings s = mandelbrot.settings;
+        return new TiledRendering(width, height, s.tileSize, s.tileSize,
+            s.frame, mandelbrot.getLowPriorityFrame(), mandelbrot.getScaleup(),
+            interval, level, mandelbrot.colorProjection, mandelbrot.iterations,
+            mandelbrot.scheduler, mandelbrot.store);
+    }
+    
+    /**
+     * Baut die Kachelgitter dieser Ansicht im Hintergrund neu auf. Bereits
+     * berechnete Kacheln, die weiterhin gültig sind, werden dabei aus dem
+     * TileStore übernommen.
+     */
+    public void refresh() {
+        mandelbrot.regrid(new Runnable() {
+            @Override
+            public void run() {
+                rebuild();
+            }
+        });
+    }
+    
+    /**
+     * Baut die Kachelgitter dieser Ansicht neu auf. Darf nur im Thread des
+     * Datenmodells aufgerufen werden.
+     */
+    void rebuild() {
+        if (isClosed) return;
+        
+        RenderingPyramid old = pyramid;
+        pyramid = new RenderingPyramid(this, mandelbrot.levelsAbove,
+            mandelbrot.levelsBelow, interval);
+        if (old != null) old.release();
+    }
+    
+    /**
+     * Passt die Kachelgitter im Hintergrund an eine neue Größe an. Bereits
+     * berechnete Kacheln bleiben dabei erhalten, sofern sich weder die
+     * Abbaustufe der Speicherregelung noch das Seitenverhältnis der Pixel
+     * ändert.
+     * 
+     * @param width neue Breite in Pixeln
+     * @param height neue Höhe in Pixeln
+     */
+    public void resize(final int width, final int height) {
+        this.width = width;
+        this.height = height;
+        final VectorRectangle interval = this.interval;
+        
+        mandelbrot.regrid(new Runnable() {
+            @Override
+            public void run() {
+                if (isClosed || pyramid == null) return;
+                
+                if (mandelbrot.govern()) {
+                    mandelbrot.rebuild();
+                    return;
+                }
+                
+                TiledRendering current = pyramid.getCurrent();
+                TiledRendering.Grid grid = current.getGrid();
+                double pixelAspect = (grid.totalInterval.getWidth() / grid.totalWidth)
+                    / (grid.totalInterval.getHeight() / grid.totalHeight);
+                double aspect = (interval.getWidth() / width)
+                    / (interval.getHeight() / height);
+                
+                if (Math.abs(pixelAspect / aspect - 1) > 0.01) rebuild();
+                else {
+                    current.interval = interval;
+                    pyramid.resize();
+                }
+            }
+        });
+    }
+    
+    /**
+     * Gibt die Kachelgitter dieser Ansicht frei. Darf nur im Thread des
+     * Datenmodells aufgerufen werden.
+     */
+    void release() {
+        isClosed = true;
+        if (pyramid != null) pyramid.release();
+    }
+    
+    /**
+     * @return true sofern die Ansicht geschlossen wurde
+     */
+    public boolean isClosed() {
+        return isClosed;
+    }
+    
+    /*** pointing ***/
+    
+    /**
+     * Setzt den Mauspunkt. Hat er sich seit der letzten Ausrichtung der
+     * Prioritäten um mindestens eine halbe Kachel bewegt, werden die
+     * Prioritäten neu ausgerichtet, sodass sichtbare Kacheln unter dem
+     * Mauszeiger zuerst berechnet werden.
+     * 
+     * @param v Mauspunkt in der komplexen Zahlenebene oder null
+     */
+    public void setMousePoint(Vector v) {
+        mousePoint = v;
+        
+        RenderingPyramid pyramid = this.pyramid;
+        if (pyramid == null) return;
+        if (v == null && rankedMousePoint == null) return;
+        if (v != null && rankedMousePoint != null) {
+            Vector d = v.minus(rankedMousePoint);
+            double half = TileKey.getTileSize(pyramid.getCurrent().level) / 2;
+            if (Math.abs(d.getX()) < half && Math.abs(d.getY()) < half) return;
+        }
+        
+        rankedMousePoint = v;
+        prioritize();
+    }
+    
+    /*** dragging ***/
+    
+    public Vector dragStart;
+    public VectorRectangle dragStartInterval;
+    
+    /**
+     * Beginnt einen Verschiebevorgang an dem angegebenen Punkt.
+     * 
+     * @param v Startpunkt der komplexen Zahlenebene des Verschiebevorganges
+     */
+    public void dragStart(Vector v) {
+        this.dragStart = v;
+        this.dragStartInterval = interval;
+    }
+    
+    /**
+     * Führt die Verschiebung des aktuellen Verschiebevorganges bis zu dem
+     * angegebenen punkt durch. Diese Methode beendet den Verschiebevorgang
+     * nicht und kann immer wieder aufgerufen werden, um das Ziehen zu einem
+     * anderen Punkt auszuführen.
+     * 
+     * @param v vorläufiger Endpunkt der komplexen Zahlen Ebene des Verschiebevorganges
+     * @param reverse Angabe, ob der Verschiebevorgang in umgekehrter Richtung
+     * ausgeführt werden soll
+     */
+    public void drag(Vector v, boolean reverse) {
+        Vector move = v.minus(dragStart);
+        Vector center = interval.getCenter();
+        interval = reverse ? dragStartInterval.minus(move) : dragStartInterval.plus(move);
+        motion.move(interval.getCenter().minus(center));
+        requestRegrid();
+    }
+    
+    /*** zooming ***/
+    
+    /**
+     * Zoomt den gewählten Bildausschnitt größer oder kleiner.
+     * 
+     * @param origin Punkt in den bzw. aus dem herein bzw. herausgezoomt werden soll
+     * @param factor anzuwendender Skalierungsfaktor des Bildausschnittes
+     */
+    public void zoom(Vector origin, double factor) {
+        interval = interval.scale(origin, factor);
+        motion.zoom(origin, factor);
+        requestRegrid();
+    }
+}
@@ -3,6 +3,8 @@ package mandelbrot.view;
 import java.awt.BorderLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
@@ -15,6 +17,8 @@ import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import mandelbrot.ColorProjection;
 import mandelbrot.Mandelbrot;
+import mandelbrot.Settings;
+import mandelbrot.Viewport;
 
 /**
  * Definiert das Hauptfenster der Anwendung.
@@ -27,7 +31,7 @@ public class MandelbrotWindow extends JFrame {
         setVisible(true);
         
         {
-            RenderingView rv = new RenderingView(mandelbrot);
+            RenderingView rv = new RenderingView(mandelbrot.viewport);
             add(rv, BorderLayout.CENTER);
         }
         
@@ -41,7 +45,7 @@ public class MandelbrotWindow extends JFrame {
             add(sidebar, BorderLayout.EAST);
             
             {
-                MetaView mv = new MetaView(mandelbrot);
+                MetaView mv = new MetaView(mandelbrot.viewport);
                 sidebar.add(mv, BorderLayout.CENTER);
             }
             
@@ -111,6 +115,61 @@ public class MandelbrotWindow extends JFrame {
                     }
                 }
                 
+                {
+                    JPanel performance = new JPanel();
+                    performance.setBorder(BorderFactory.createTitledBorder("performance"));
+                    performance.setLayout(new BoxLayout(performance, BoxLayout.Y_AXIS));
+                    topright.add(performance, BorderLayout.CENTER);
+                    
+                    Settings s = mandelbrot.settings;
+                    
+                    final JTextField threadsTextField = new JTextField();
+                    threadsTextField.setBorder(BorderFactory.createTitledBorder("threads"));
+                    threadsTextField.setText(s.threads + "");
+                    performance.add(threadsTextField);
+                    
+                    final JTextField tileSizeTextField = new JTextField();
+                    tileSizeTextField.setBorder(BorderFactory.createTitledBorder("tile size"));
+                    tileSizeTextField.setText(s.tileSize + "");
+                    performance.add(tileSizeTextField);
+                    
+                    final JTextField frameTextField = new JTextField();
+                    frameTextField.setBorder(BorderFactory.createTitledBorder("frame / low priority frame"));
+                    frameTextField.setText(s.frame + "/" + s.lowPriorityFrame);
+                    performance.add(frameTextField);
+                    
+                    final JTextField scaleupTextField = new JTextField();
+                    scaleupTextField.setBorder(BorderFactory.createTitledBorder("scaleup"));
+                    scaleupTextField.setText(s.scaleup + "");
+                    performance.add(scaleupTextField);
+                    
+                    final JTextField fpsTextField = new JTextField();
+                    fpsTextField.setBorder(BorderFactory.createTitledBorder("frames per second"));
+                    fpsTextField.setText(s.fps + "");
+                    performance.add(fpsTextField);
+                    
+                    {
+                        JButton jb = new JButton();
+                        jb.setText("apply");
+                        jb.setAlignmentX(CENTER_ALIGNMENT);
+                        jb.addActionListener(new ActionListener() {
+                            @Override
+                            public void actionPerformed(ActionEvent e) {
+                                Settings s = new Settings(mandelbrot.settings);
+                                String[] frame = frameTextField.getText().split("/");
+                                s.threads = Integer.parseInt(threadsTextField.getText().trim());
+                                s.tileSize = Integer.parseInt(tileSizeTextField.getText().trim());
+                                s.frame = Integer.parseInt(frame[0].trim());
+                                s.lowPriorityFrame = Integer.parseInt(frame[frame.length - 1].trim());
+                                s.scaleup = Double.parseDouble(scaleupTextField.getText().trim());
+                                s.fps = Integer.parseInt(fpsTextField.getText().trim());
+                                mandelbrot.apply(s);
+                            }
+                        });
+                        performance.add(jb);
+                    }
+                }
+                
                 {
                     JPanel buttons = new JPanel();
                     buttons.setBorder(BorderFactory.createTitledBorder("buttons"));
@@ -131,7 +190,7 @@ public class MandelbrotWindow extends JFrame {
                                 jf.setVisible(true);
 
                                 {
-                                    RenderingCacheView rcv = new RenderingCacheView(mandelbrot, false);
+                                    RenderingCacheView rcv = new RenderingCacheView(mandelbrot.viewport, 0);
                                     jf.add(rcv, BorderLayout.CENTER);
                                 }
                             }
@@ -153,7 +212,7 @@ public class MandelbrotWindow extends JFrame {
                                 jf.setVisible(true);
 
                                 {
-                                    RenderingCacheView rcv = new RenderingCacheView(mandelbrot, true);
+                                    RenderingCacheView rcv = new RenderingCacheView(mandelbrot.viewport, 1);
                                     jf.add(rcv, BorderLayout.CENTER);
                                 }
                             }
@@ -161,14 +220,46 @@ public class MandelbrotWindow extends JFrame {
                         buttons.add(jb);
                     }
                     
+                    {
+                        JButton jb = new JButton();
+                        jb.setText("new view");
+                        jb.addActionListener(new ActionListener() {
+                            @Override
+                            public void actionPerformed(ActionEvent e) {
+                                final Viewport viewport = mandelbrot.createViewport(
+                                    mandelbrot.viewport.interval, 400, 300);
+                                
+                                JFrame jf = new JFrame();
+                                jf.setLocation(800, 0);
+                                jf.setSize(400, 300);
+                                jf.setLayout(new BorderLayout());
+                                jf.setTitle("view");
+                                jf.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+                                jf.addWindowListener(new WindowAdapter() {
+                                    @Override
+                                    public void windowClosed(WindowEvent e) {
+                                        mandelbrot.closeViewport(viewport);
+                                    }
+                                });
+                                jf.setVisible(true);
+
+                                {
+                                    RenderingView rv = new RenderingView(viewport);
+                                    jf.add(rv, BorderLayout.CENTER);
+                                }
+                            }
+                        });
+                        buttons.add(jb);
+                    }
+                    
                     {
                         JButton jb = new JButton();
                         jb.setText("restart");
                         jb.addActionListener(new ActionListener() {
                             @Override
                             public void actionPerformed(ActionEvent e) {
-                                mandelbrot.cache1.interval = mandelbrot.firstInterval;
-                                mandelbrot.refresh();
+                                mandelbrot.viewport.interval = mandelbrot.firstInterval;
+                                mandelbrot.viewport.refresh();
                             }
                         });
                         buttons.add(jb);
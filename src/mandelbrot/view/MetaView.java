@@ -3,28 +3,146 @@ package mandelbrot.view;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.util.ArrayList;
+import java.util.List;
+import mandelbrot.BufferPool;
+import mandelbrot.CostModel;
 import mandelbrot.Mandelbrot;
+import mandelbrot.MemoryGovernor;
+import mandelbrot.RenderingPyramid;
+import mandelbrot.TileEvent;
+import mandelbrot.TileEvents;
+import mandelbrot.TiledRendering;
+import mandelbrot.Viewport;
 import util.AnimatedJComponent;
+import util.FrameStatistics;
 import util.Util;
 import util.Vector;
+import util.VectorRectangle;
 
 /**
  * Definiert eine Text-Darstellung aktueller Metadaten.
+ * Neu gezeichnet wird nur, wenn Ereignisse von Kacheln eingetroffen sind
+ * oder sich der Bildausschnitt, der Mauspunkt oder die Kachelgitter geändert
+ * haben oder die Ansicht einen weiteren Frame gezeichnet hat.
+ * Die Zähler der Kacheln werden aus den abonnierten TileEvents des
+ * Kachelspeichers fortgeschrieben, ohne die Kachelgitter zu durchsuchen.
  */
 public class MetaView extends AnimatedJComponent {
     private final Mandelbrot mandelbrot;
+    private final Viewport viewport;
     
-    public MetaView(Mandelbrot mandelbrot) {
-        this.mandelbrot = mandelbrot;
+    private VectorRectangle drawnInterval = null;
+    private Vector drawnMousePoint = null;
+    private TiledRendering.Grid drawnGrid = null;
+    private long drawnFrames = 0;
+    
+    /*** tile events ***/
+    
+    private TileEvents.Subscription subscription = null;
+    private final List<TileEvent> events = new ArrayList<TileEvent>();
+    
+    private long queuedTiles = 0;
+    private long finishedTiles = 0;
+    private long cancelledTiles = 0;
+    private long runningTiles = 0; // seit dem Abonnement gestartete und
+        // noch nicht beendete Kacheln
+    private long finishedIterations = 0; // Aufwand aller fertigen Kacheln
+    private double throughput = 0; // geglätteter Aufwand je Sekunde
+    
+    public MetaView(Viewport viewport) {
+        this.mandelbrot = viewport.mandelbrot;
+        this.viewport = viewport;
         setPreferredSize(new Dimension(250, 200));
     }
     
     @Override
-    protected void calculateAnimation() {
+    public void addNotify() {
+        super.addNotify();
+        subscription = mandelbrot.store.events.subscribe(TileEvents.defaultCapacity);
+    }
+    
+    @Override
+    public void removeNotify() {
+        subscription.cancel();
+        subscription = null;
+        super.removeNotify();
+    }
+    
+    /**
+     * Holt die eingetroffenen Ereignisse ab und schreibt die Zähler fort.
+     * 
+     * @param elapsed seit dem letzten Aufruf vergangene Zeit in Sekunden
+     * @return true sofern Ereignisse eingetroffen sind
+     */
+    private boolean consumeEvents(double elapsed) {
+        if (subscription == null || subscription.drainTo(events) == 0) {
+            throughput *= Math.exp(-elapsed);
+            return false;
+        }
+        
+        long iterations = 0;
+        
+        for (TileEvent e: events) {
+            switch (e.type) {
+                case TileEvent.QUEUED:
+                    ++queuedTiles;
+                    break;
+                case TileEvent.STARTED:
+                    ++runningTiles;
+                    break;
+                case TileEvent.FINISHED:
+                    ++finishedTiles;
+                    if (e.isStarted) {
+                        --runningTiles;
+                        iterations += e.iterations;
+                    }
+                    break;
+                case TileEvent.CANCELLED:
+                    ++cancelledTiles;
+                    if (e.isStarted) --runningTiles;
+                    break;
+            }
+        }
+        
+        events.clear();
+        finishedIterations += iterations;
+        
+        double a = Math.exp(-elapsed);
+        throughput = a * throughput + (1 - a) * iterations / elapsed;
+        return true;
+    }
+    
+    @Override
+    protected boolean calculateAnimation(double elapsed) {
+        boolean isEvent = consumeEvents(elapsed);
+        
+        RenderingPyramid pyramid = viewport.pyramid;
+        VectorRectangle interval = viewport.interval;
+        Vector mousePoint = viewport.mousePoint;
+        TiledRendering.Grid grid = pyramid == null ? null
+            : pyramid.getCurrent().getGrid();
+        long frames = viewport.frameTimes.getCount();
+        
+        if (!isEvent && interval == drawnInterval
+            && mousePoint == drawnMousePoint && grid == drawnGrid
+            && frames == drawnFrames) return false;
+        
+        drawnInterval = interval;
+        drawnMousePoint = mousePoint;
+        drawnGrid = grid;
+        drawnFrames = frames;
+        return true;
+    }
+    
+    private static String formatPercentiles(FrameStatistics s) {
+        if (s.getCount() == 0) return "n/a";
+        return String.format("%.1f / %.1f / %.1f ms", s.getPercentile(0.5),
+            s.getPercentile(0.95), s.getPercentile(0.99));
     }
     
     @Override
-    public void paint(Graphics g) {
+    protected void paintFrame(Graphics g) {
         g.setColor(Color.DARK_GRAY);
         
         g.fillRect(0, 0, getWidth(), getHeight());
@@ -56,7 +174,7 @@ public class MetaView extends AnimatedJComponent {
         oy += 5;
         oy += lineHeight;
         g.drawString("mouse:", ox1, oy);
-        Vector v = mandelbrot.mousePoint;
+        Vector v = viewport.mousePoint;
         g.drawString((v == null ? "n/a" : v.complexToString()), ox2, oy);
         
         oy += 15;
@@ -66,19 +184,19 @@ public class MetaView extends AnimatedJComponent {
         
         oy += lineHeight;
         g.drawString("real:", ox1, oy);
-        g.drawString("[" + Util.format(mandelbrot.cache1.interval.getLeft()) + ", " + Util.format(mandelbrot.cache1.interval.getRight()) + "]", ox2, oy);
+        g.drawString("[" + Util.format(viewport.interval.getLeft()) + ", " + Util.format(viewport.interval.getRight()) + "]", ox2, oy);
         
         oy += lineHeight;
         g.drawString("imaginary:", ox1, oy);
-        g.drawString("[" + Util.format(mandelbrot.cache1.interval.getBottom()) + ", " + Util.format(mandelbrot.cache1.interval.getTop()) + "]", ox2, oy);
+        g.drawString("[" + Util.format(viewport.interval.getBottom()) + ", " + Util.format(viewport.interval.getTop()) + "]", ox2, oy);
         
         oy += lineHeight;
         g.drawString("width:", ox1, oy);
-        g.drawString(Util.format(mandelbrot.cache1.interval.getWidth()), ox2, oy);
+        g.drawString(Util.format(viewport.interval.getWidth()), ox2, oy);
         
         oy += lineHeight;
         g.drawString("height:", ox1, oy);
-        g.drawString(Util.format(mandelbrot.cache1.interval.getHeight()), ox2, oy);
+        g.drawString(Util.format(viewport.interval.getHeight()), ox2, oy);
         
         oy += 15;
         oy += lineHeight;
@@ -87,23 +205,90 @@ public class MetaView extends AnimatedJComponent {
         
         oy += lineHeight;
         g.drawString("resolution:", ox1, oy);
-        g.drawString(mandelbrot.width + "x" + mandelbrot.height, ox2, oy);
+        g.drawString(viewport.width + "x" + viewport.height, ox2, oy);
         
         oy += lineHeight;
         g.drawString("iterations:", ox1, oy);
         g.drawString(mandelbrot.iterations + "", ox2, oy);
         
         oy += 5;
+        RenderingPyramid pyramid = viewport.pyramid;
+        
+        for (int level = -pyramid.levelsAbove; level <= pyramid.levelsBelow; ++level) {
+            TiledRendering tr = pyramid.get(level);
+            
+            oy += lineHeight;
+            g.drawString("level " + (level > 0 ? "+" : "") + level, ox1, oy);
+            if (tr == null) g.drawString("off", ox2, oy);
+            else {
+                g.drawString(tr.getGrid().totalWidth + "x" + tr.getGrid().totalHeight, ox2, oy);
+                g.drawString(String.format("%.0f", tr.getCompleteness() * 100) + "%", 150, oy);
+                g.drawString(String.format("%.3f", tr.getTotalTime() / mandelbrot.settings.threads / 1000d) + "s", 195, oy);
+            }
+        }
+        
+        oy += lineHeight;
+        g.drawString("queue", ox1, oy);
+        g.drawString(mandelbrot.scheduler.size() + " tiles", ox2, oy);
+        g.drawString(Math.max(0, runningTiles) + " running", 150, oy);
+        
+        oy += lineHeight;
+        g.drawString("tiles", ox1, oy);
+        g.drawString(finishedTiles + " done", ox2, oy);
+        g.drawString(cancelledTiles + " cancelled", 150, oy);
+        
+        oy += lineHeight;
+        g.drawString("throughput", ox1, oy);
+        g.drawString(String.format("%.1f M it/s", throughput / 1e6), ox2, oy);
+        g.drawString(String.format("%.0f M it", finishedIterations / 1e6), 150, oy);
+        
+        oy += lineHeight;
+        g.drawString("events", ox1, oy);
+        g.drawString(queuedTiles + " queued", ox2, oy);
+        g.drawString((subscription == null ? 0 : subscription.getDropped()) + " dropped", 150, oy);
+        
+        oy += lineHeight;
+        g.drawString("store", ox1, oy);
+        g.drawString(mandelbrot.store.size() + " tiles", ox2, oy);
+        g.drawString(String.format("%.0f%% hits", mandelbrot.store.getHitRate() * 100), 150, oy);
+        
+        oy += lineHeight;
+        g.drawString("views", ox1, oy);
+        g.drawString(mandelbrot.getViewports().size() + "", ox2, oy);
+        
+        oy += lineHeight;
+        g.drawString("prediction", ox1, oy);
+        g.drawString(CostModel.instance.getPredictions() + " tiles", ox2, oy);
+        g.drawString(String.format("\u00b1%.0f%%", CostModel.instance.getMeanError() * 100), 150, oy);
+        g.drawString(String.format("x%.2f", CostModel.instance.getBias()), 195, oy);
+        
+        oy += lineHeight;
+        g.drawString("buffers", ox1, oy);
+        g.drawString(BufferPool.instance.getAllocations() + " new", ox2, oy);
+        g.drawString(BufferPool.instance.getReuses() + " reused", 150, oy);
+        
+        oy += lineHeight;
+        g.drawString("memory", ox1, oy);
+        g.drawString(String.format("%.1f / %.0f MB",
+            BufferPool.instance.getBytes() / 1048576d,
+            mandelbrot.memoryGovernor.getBudget() / 1048576d), ox2, oy);
+        
+        oy += lineHeight;
+        g.drawString("governor", ox1, oy);
+        g.drawString(MemoryGovernor.stageNames[mandelbrot.memoryGovernor.getStage()], ox2, oy);
+        
+        oy += 15;
+        oy += lineHeight;
+        g.drawString("FRAMES", ox1, oy);
+        g.drawString(mandelbrot.settings.fps + " fps target, p50 / p95 / p99", ox2, oy);
+        oy += 5;
+        
         oy += lineHeight;
-        g.drawString("cache1", ox1, oy);
-        g.drawString(mandelbrot.cache1.totalWidth + "x" + mandelbrot.cache1.totalHeight, ox2, oy);
-        g.drawString(String.format("%.0f", mandelbrot.cache1.getCompleteness() * 100) + "%", 150, oy);
-        g.drawString(String.format("%.3f", mandelbrot.cache1.getTotalTime() / mandelbrot.threads / 1000d) + "s", 195, oy);
+        g.drawString("frame", ox1, oy);
+        g.drawString(formatPercentiles(viewport.frameTimes), ox2, oy);
         
         oy += lineHeight;
-        g.drawString("cache2", ox1, oy);
-        g.drawString(mandelbrot.cache2.totalWidth + "x" + mandelbrot.cache2.totalHeight, ox2, oy);
-        g.drawString(String.format("%.0f", mandelbrot.cache2.getCompleteness() * 100) + "%", 150, oy);
-        g.drawString(String.format("%.3f", mandelbrot.cache2.getTotalTime() / mandelbrot.threads / 1000d) + "s", 195, oy);
+        g.drawString("paint", ox1, oy);
+        g.drawString(formatPercentiles(viewport.paintTimes), ox2, oy);
     }
 }
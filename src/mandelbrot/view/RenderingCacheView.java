@@ -1,26 +1,35 @@
 package mandelbrot.view;
 
+import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import mandelbrot.Mandelbrot;
+import mandelbrot.Rendering;
+import mandelbrot.TileListener;
 import mandelbrot.TiledRendering;
+import mandelbrot.Viewport;
 import util.AnimatedJComponent;
 import util.ScreenProjection;
 import util.Vector;
+import util.VectorRectangle;
 
 /**
  * Definiert eine Darstellung des aktuelle gerenderten Caches.
+ * Neu gezeichnet wird wie bei RenderingView nur bei Veränderungen.
  */
 public class RenderingCacheView extends AnimatedJComponent {
     private final Mandelbrot mandelbrot;
-    private final boolean displaySecond;
+    private final Viewport viewport;
+    private final int level;
     
     private TiledRendering getCache() {
-        return displaySecond ? mandelbrot.cache2 : mandelbrot.cache1;
+        return viewport.pyramid.get(level);
     }
     
     private boolean isDragging = false;
@@ -29,17 +38,40 @@ public class RenderingCacheView extends AnimatedJComponent {
     
     private ScreenProjection dragProjection;
     
+    private VectorRectangle drawnInterval = null; // zuletzt gezeichneter
+        // Bildausschnitt
+    private TiledRendering.Grid drawnGrid = null; // zuletzt gezeichnetes
+        // Kachelgitter
+    
+    private final TileListener tileListener = new TileListener() {
+        @Override
+        public void tileFinished(Rendering tile) {
+            TiledRendering cache = getCache();
+            if (cache == null || !cache.contains(tile)) return;
+            
+            ScreenProjection projection = new ScreenProjection(
+                cache.getGrid().totalInterval, getWidth(), getHeight());
+            Point tl = projection.projectToScreen(tile.interval.getTopLeft());
+            Point br = projection.projectToScreen(tile.interval.getBottomRight());
+            
+            repaintLater(new Rectangle(tl.x, tl.y, br.x - tl.x + 1, br.y - tl.y + 1));
+        }
+    };
+    
     private ScreenProjection getScreenProjection() {
-        return new ScreenProjection(getCache().totalInterval, getWidth(), getHeight());
+        TiledRendering cache = getCache();
+        if (cache == null) cache = viewport.pyramid.getCurrent();
+        return new ScreenProjection(cache.getGrid().totalInterval, getWidth(), getHeight());
     }
     
     private Vector getOrigin() {
         return getScreenProjection().projectFromScreen(getMousePosition());
     }
     
-    public RenderingCacheView(final Mandelbrot mandelbrot, boolean displaySecond) {
-        this.mandelbrot = mandelbrot;
-        this.displaySecond = displaySecond;
+    public RenderingCacheView(final Viewport viewport, int level) {
+        this.mandelbrot = viewport.mandelbrot;
+        this.viewport = viewport;
+        this.level = level;
         setCursor(Cursor.getPredefinedCursor(Cursor.CROSSHAIR_CURSOR));
         
         addMouseListener(new MouseListener() {
@@ -52,7 +84,7 @@ public class RenderingCacheView extends AnimatedJComponent {
                 if (e.isShiftDown()) {
                     isDragging = true;
                     dragProjection = getScreenProjection();
-                    mandelbrot.dragStart(dragProjection.projectFromScreen(e.getPoint()));
+                    viewport.dragStart(dragProjection.projectFromScreen(e.getPoint()));
                 }
                 else if (e.getButton() == MouseEvent.BUTTON1) isZoomingIn = true;
                 else if (e.getButton() == MouseEvent.BUTTON3) isZoomingOut = true;
@@ -78,7 +110,7 @@ public class RenderingCacheView extends AnimatedJComponent {
         addMouseMotionListener(new MouseMotionListener() {
             @Override
             public void mouseDragged(MouseEvent e) {
-                if (isDragging) mandelbrot.drag(dragProjection.projectFromScreen(e.getPoint()), false);
+                if (isDragging) viewport.drag(dragProjection.projectFromScreen(e.getPoint()), false);
             }
 
             @Override
@@ -88,12 +120,49 @@ public class RenderingCacheView extends AnimatedJComponent {
     }
     
     @Override
-    protected void calculateAnimation() {
-        if (isZoomingIn || isZoomingOut) mandelbrot.zoom(getOrigin(), isZoomingIn ? 1-mandelbrot.zoomFactor : 1+mandelbrot.zoomFactor);
+    public void addNotify() {
+        super.addNotify();
+        mandelbrot.store.addListener(tileListener);
+    }
+    
+    @Override
+    public void removeNotify() {
+        mandelbrot.store.removeListener(tileListener);
+        super.removeNotify();
+    }
+    
+    @Override
+    protected int getFrameRate() {
+        return mandelbrot.settings.fps;
+    }
+    
+    @Override
+    protected boolean calculateAnimation(double elapsed) {
+        if (isZoomingIn || isZoomingOut) viewport.zoom(getOrigin(), mandelbrot.getZoomFactor(isZoomingIn, elapsed));
+        
+        TiledRendering cache = getCache();
+        VectorRectangle interval = viewport.interval;
+        TiledRendering.Grid grid = cache == null ? null : cache.getGrid();
+        
+        if (interval == drawnInterval && grid == drawnGrid) return false;
+        
+        drawnInterval = interval;
+        drawnGrid = grid;
+        return true;
     }
 
     @Override
-    public void paint(Graphics g) {
-        getCache().drawDebug((Graphics2D)g, 0, 0, getWidth(), getHeight());
+    protected void paintFrame(Graphics g) {
+        TiledRendering cache = getCache();
+        
+        if (cache == null) {
+            g.setColor(Color.DARK_GRAY);
+            g.fillRect(0, 0, getWidth(), getHeight());
+            g.setColor(Color.WHITE);
+            g.drawString("level not available", 10, 20);
+            return;
+        }
+        
+        cache.drawDebug((Graphics2D)g, 0, 0, getWidth(), getHeight());
     }
 }
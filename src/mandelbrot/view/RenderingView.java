@@ -5,13 +5,20 @@ import java.awt.Cursor;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import mandelbrot.BackBuffer;
 import mandelbrot.Mandelbrot;
-import mandelbrot.ProgressionCalculator;
+import mandelbrot.Orbit;
+import mandelbrot.Rendering;
+import mandelbrot.RenderingPyramid;
+import mandelbrot.TileListener;
+import mandelbrot.TiledRendering;
+import mandelbrot.Viewport;
 import util.AnimatedJComponent;
 import util.ScreenProjection;
 import util.Vector;
@@ -19,9 +26,19 @@ import util.VectorRectangle;
 
 /**
  * Definiert eine Darstellung des aktuelle gerenderten Bildes.
+ * Neu gezeichnet wird nur, wenn sich der Bildausschnitt oder das gezeichnete
+ * Kachelgitter geändert haben oder der Mauszeiger bewegt wurde. Fertig
+ * werdende Kacheln melden lediglich ihren Bereich zum Neuzeichnen an, ebenso
+ * fertig werdende Kacheln gröberer Ebenen, die der BackBuffer als Vorschau
+ * vorgemerkt hat.
+ * Die Kacheln der aktuellen Ebene werden über einen BackBuffer gezeichnet, in
+ * den jede Kachel nur einmal eingezeichnet wird. Was davon die Frist eines
+ * Frames überschreitet, wird im nächsten Frame nachgeholt.
+ * Die Frame-Dauern werden in den Messreihen der Ansicht erfasst.
  */
 public class RenderingView extends AnimatedJComponent {
     private final Mandelbrot mandelbrot;
+    private final Viewport viewport;
     
     private boolean isDragging = false;
     private boolean isZoomingIn = false;
@@ -29,8 +46,39 @@ public class RenderingView extends AnimatedJComponent {
     
     private ScreenProjection dragProjection;
     
+    private VectorRectangle drawnInterval = null; // zuletzt gezeichneter
+        // Bildausschnitt
+    private TiledRendering.Grid drawnGrid = null; // zuletzt gezeichnetes
+        // Kachelgitter
+    
+    private final BackBuffer backBuffer = new BackBuffer(); // fertige Kacheln
+        // der aktuellen Ebene
+    private boolean isComposePending = false; // Angabe, ob fertige Kacheln
+        // auf den nächsten Frame verschoben wurden
+    
+    private Orbit orbit = null; // zuletzt gezeichnete Folge des Mauspunktes
+    
+    private final TileListener tileListener = new TileListener() {
+        @Override
+        public void tileFinished(Rendering tile) {
+            boolean isPreview = backBuffer.tileFinished(tile);
+            
+            RenderingPyramid pyramid = viewport.pyramid;
+            if (pyramid == null
+                || !isPreview && !pyramid.getCurrent().contains(tile)) return;
+            
+            ScreenProjection projection = getScreenProjection();
+            Point tl = projection.projectToScreen(tile.interval.getTopLeft());
+            Point br = projection.projectToScreen(tile.interval.getBottomRight());
+            
+            Rectangle r = new Rectangle(tl.x, tl.y, br.x - tl.x + 1, br.y - tl.y + 1)
+                .intersection(new Rectangle(0, 0, getWidth(), getHeight()));
+            if (!r.isEmpty()) repaintLater(r);
+        }
+    };
+    
     private ScreenProjection getScreenProjection() {
-        return new ScreenProjection(mandelbrot.cache1.interval, getWidth(), getHeight());
+        return new ScreenProjection(viewport.interval, getWidth(), getHeight());
     }
     
     private Vector getOrigin() {
@@ -39,8 +87,10 @@ public class RenderingView extends AnimatedJComponent {
         return getScreenProjection().projectFromScreen(p);
     }
     
-    public RenderingView(final Mandelbrot mandelbrot) {
-        this.mandelbrot = mandelbrot;
+    public RenderingView(final Viewport viewport) {
+        super(viewport.frameTimes, viewport.paintTimes);
+        this.mandelbrot = viewport.mandelbrot;
+        this.viewport = viewport;
         //calculateAspectRatio();
         setCursor(Cursor.getPredefinedCursor(Cursor.CROSSHAIR_CURSOR));
         
@@ -54,7 +104,7 @@ public class RenderingView extends AnimatedJComponent {
                 if (e.isShiftDown()) {
                     isDragging = true;
                     dragProjection = getScreenProjection();
-                    mandelbrot.dragStart(dragProjection.projectFromScreen(e.getPoint()));
+                    viewport.dragStart(dragProjection.projectFromScreen(e.getPoint()));
                 }
                 else if (e.getButton() == MouseEvent.BUTTON1) isZoomingIn = true;
                 else if (e.getButton() == MouseEvent.BUTTON3) isZoomingOut = true;
@@ -69,10 +119,12 @@ public class RenderingView extends AnimatedJComponent {
 
             @Override
             public void mouseEntered(MouseEvent e) {
+                mandelbrot.setActiveViewport(viewport);
             }
 
             @Override
             public void mouseExited(MouseEvent e) {
+                repaint();
             }
             
         });
@@ -80,13 +132,15 @@ public class RenderingView extends AnimatedJComponent {
         addMouseMotionListener(new MouseMotionListener() {
             @Override
             public void mouseDragged(MouseEvent e) {
-                if (isDragging) mandelbrot.drag(dragProjection.projectFromScreen(e.getPoint()), true);
-                mandelbrot.mousePoint = getOrigin();
+                if (isDragging) viewport.drag(dragProjection.projectFromScreen(e.getPoint()), true);
+                viewport.setMousePoint(getOrigin());
+                repaint();
             }
 
             @Override
             public void mouseMoved(MouseEvent e) {
-                mandelbrot.mousePoint = getOrigin();
+                viewport.setMousePoint(getOrigin());
+                repaint();
             }
         });
         
@@ -102,63 +156,86 @@ public class RenderingView extends AnimatedJComponent {
 
             @Override
             public void componentShown(ComponentEvent e) {
+                viewport.setVisible(true);
             }
 
             @Override
             public void componentHidden(ComponentEvent e) {
+                viewport.setVisible(false);
             }
         });
     }
     
     private void onResize() {
-        mandelbrot.width = getWidth();
-        mandelbrot.height = getHeight();
-        
-        mandelbrot.cache1.interval = new VectorRectangle(
-            mandelbrot.cache1.interval.getCenter(),
-            mandelbrot.cache1.interval.getHeight() * (getWidth() / (double)getHeight()),
-            mandelbrot.cache1.interval.getHeight()
+        viewport.interval = new VectorRectangle(
+            viewport.interval.getCenter(),
+            viewport.interval.getHeight() * (getWidth() / (double)getHeight()),
+            viewport.interval.getHeight()
         );
         
-        mandelbrot.refresh();
+        viewport.resize(getWidth(), getHeight());
+    }
+    
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        mandelbrot.store.addListener(tileListener);
+    }
+    
+    @Override
+    public void removeNotify() {
+        mandelbrot.store.removeListener(tileListener);
+        backBuffer.flush();
+        super.removeNotify();
     }
     
     @Override
-    protected void calculateAnimation() {
+    protected int getFrameRate() {
+        return mandelbrot.settings.fps;
+    }
+    
+    @Override
+    protected boolean calculateAnimation(double elapsed) {
         if (isZoomingIn || isZoomingOut) {
             Vector v = getOrigin();
-            if (v != null) mandelbrot.zoom(v, isZoomingIn ? 1-mandelbrot.zoomFactor : 1+mandelbrot.zoomFactor);
+            if (v != null) viewport.zoom(v, mandelbrot.getZoomFactor(isZoomingIn, elapsed));
         }
+        
+        RenderingPyramid pyramid = viewport.pyramid;
+        VectorRectangle interval = viewport.interval;
+        TiledRendering.Grid grid = pyramid == null ? null
+            : pyramid.getCurrent().getGrid();
+        
+        boolean isPending = isComposePending;
+        isComposePending = false;
+        if (!isPending && interval == drawnInterval && grid == drawnGrid) return false;
+        
+        drawnInterval = interval;
+        drawnGrid = grid;
+        return true;
     }
 
     @Override
-    public void paint(Graphics g) {
-        mandelbrot.cache1.draw((Graphics2D)g, 0, 0, getWidth(), getHeight());
+    protected void paintFrame(Graphics g) {
+        RenderingPyramid pyramid = viewport.pyramid;
+        VectorRectangle interval = viewport.interval;
+        if (pyramid != null && !backBuffer.draw((Graphics2D)g,
+            getGraphicsConfiguration(), pyramid.getCurrent(), getWidth(),
+            getHeight(), interval, getFrameDeadline())) {
+            isComposePending = true;
+        }
         
         g.setColor(Color.WHITE);
         
         Vector v = getOrigin();
         
         if (v != null) {
-            ProgressionCalculator m = new ProgressionCalculator();
-            m.begin(v);
-            m.calculate();
-            
-            Point lastPoint = null;
-            
-            for (int i = 0; i < mandelbrot.pointsAmount; ++i) {
-                Point p = getScreenProjection().projectToScreen(m.currentValue);
-                g.setColor(mandelbrot.pointsColorProjection.project(i, mandelbrot.pointsAmount));
-                
-                if (0 <= p.x && p.x < getWidth() && 0 <= p.y && p.y < getHeight()) {
-                    if (mandelbrot.linesNotPoints) g.drawLine(lastPoint.x, lastPoint.y, p.x, p.y);
-                    else g.drawRect((int)p.getX(), (int)p.getY(), 1, 1);
-                }
-                
-                m.calculate();
-                
-                lastPoint = p;
+            if (orbit == null || !orbit.isOf(v, mandelbrot.pointsAmount)) {
+                orbit = new Orbit(v, mandelbrot.pointsAmount);
             }
+            
+            orbit.draw((Graphics2D)g, getWidth(), getHeight(), interval,
+                mandelbrot.pointsColorProjection, mandelbrot.linesNotPoints);
         }
     }
 }
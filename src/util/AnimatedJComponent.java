@@ -1,29 +1,152 @@
 package util;
 
+import java.awt.Graphics;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import javax.swing.JComponent;
 import javax.swing.Timer;
 
 /**
- * Definiert einen doppelt gepufferten, animierten und sich automatisch
+ * Definiert einen doppelt gepufferten, animierten und sich bei Bedarf
  * aktualisierenden JComponent.
+ * Je Frame wird calculateAnimation() aufgerufen. Liefert diese Methode true,
+ * wird die gesamte Komponente neu gezeichnet, ansonsten nur die seit dem
+ * letzten Frame mit repaintLater() gemeldeten Bereiche, die dazu zu einem
+ * Rechteck zusammengefasst werden. Ist nichts zu tun, wird nicht gezeichnet.
+ * Die Frames werden mit der von getFrameRate() angegebenen Rate angestoßen.
+ * Da der Timer unter Last Frames auslässt, erhält calculateAnimation() die
+ * tatsächlich vergangene Zeit, sodass Animationen unabhängig von der
+ * erreichten Rate gleich schnell ablaufen.
+ * Aufschiebbare Zeichenarbeit soll beim Zeichnen die Frist
+ * getFrameDeadline() einhalten. Je Frame werden die Dauer vom Anstoßen bis
+ * zum Ende des Zeichnens und die Dauer des Zeichnens selbst gemessen.
  */
 public abstract class AnimatedJComponent extends JComponent {
+    public static final double budgetShare = 0.5; // Anteil der Framedauer,
+        // der für aufschiebbare Zeichenarbeit zur Verfügung steht
+    public static final double maxElapsed = 0.25; // höchste an
+        // calculateAnimation() übergebene Zeitspanne in Sekunden
+    
+    public final FrameStatistics frameTimes; // vom Anstoßen eines Frames bis
+        // zum Ende seines Zeichnens
+    public final FrameStatistics paintTimes; // Dauer des Zeichnens
+    
     private final Timer timer;
     
+    private Rectangle dirty = null; // seit dem letzten Frame gemeldeter
+        // Bereich
+    
+    private long lastTick = 0; // Zeitpunkt des letzten Frames
+    private long frameStart = 0; // Zeitpunkt des noch nicht gezeichneten
+        // Frames, 0 sofern keiner aussteht
+    private long frameDeadline = 0; // Frist des aktuellen Zeichnens
+    
     public AnimatedJComponent() {
+        this(new FrameStatistics(256), new FrameStatistics(256));
+    }
+    
+    /**
+     * Erzeugt einen JComponent, dessen Messwerte in den angegebenen
+     * Messreihen erfasst werden.
+     * 
+     * @param frameTimes Messreihe der Frame-Dauern
+     * @param paintTimes Messreihe der Zeichendauern
+     */
+    public AnimatedJComponent(FrameStatistics frameTimes,
+        FrameStatistics paintTimes) {
+        this.frameTimes = frameTimes;
+        this.paintTimes = paintTimes;
         setDoubleBuffered(true);
         
         timer = new Timer(100, new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                calculateAnimation();
-                repaint();
+                tick();
             }
         });
         timer.start();
     }
     
-    protected abstract void calculateAnimation();
+    private void tick() {
+        long now = System.nanoTime();
+        int delay = 1000 / Math.max(1, getFrameRate());
+        double elapsed = lastTick == 0 ? delay / 1000d
+            : Math.min(maxElapsed, (now - lastTick) / 1e9);
+        lastTick = now;
+        if (timer.getDelay() != delay) timer.setDelay(delay);
+        
+        Rectangle r = takeDirty();
+        boolean isComplete = calculateAnimation(elapsed);
+        if (!isComplete && r == null) return;
+        
+        if (frameStart == 0) frameStart = now;
+        if (isComplete) repaint();
+        else repaint(r);
+    }
+    
+    /**
+     * @return angestrebte Anzahl der Frames je Sekunde
+     */
+    protected int getFrameRate() {
+        return 10;
+    }
+    
+    /**
+     * Berechnet den nächsten Frame der Animation.
+     * 
+     * @param elapsed seit dem letzten Frame vergangene Zeit in Sekunden,
+     * höchstens maxElapsed
+     * @return true sofern die gesamte Komponente neu gezeichnet werden soll
+     */
+    protected abstract boolean calculateAnimation(double elapsed);
+    
+    /**
+     * Zeichnet den aktuellen Frame.
+     * 
+     * @param g das Graphics-Objekt, auf das gezeichnet werden soll
+     */
+    protected abstract void paintFrame(Graphics g);
+    
+    @Override
+    public void paint(Graphics g) {
+        long t0 = System.nanoTime();
+        frameDeadline = t0
+            + (long)(budgetShare * 1e9 / Math.max(1, getFrameRate()));
+        
+        paintFrame(g);
+        
+        long t1 = System.nanoTime();
+        paintTimes.add((t1 - t0) / 1e6);
+        if (frameStart != 0) {
+            frameTimes.add((t1 - frameStart) / 1e6);
+            frameStart = 0;
+        }
+    }
+    
+    /**
+     * @return Zeitpunkt im Sinne von System.nanoTime(), bis zu dem
+     * aufschiebbare Zeichenarbeit des aktuellen Zeichnens abgeschlossen sein
+     * soll
+     */
+    protected long getFrameDeadline() {
+        return frameDeadline;
+    }
+    
+    /**
+     * Meldet einen Bereich, der im nächsten Frame neu gezeichnet werden soll.
+     * Diese Methode kann von beliebigen Threads aufgerufen werden.
+     * 
+     * @param r Bereich in Pixeln der Komponente
+     */
+    public synchronized void repaintLater(Rectangle r) {
+        if (dirty == null) dirty = new Rectangle(r);
+        else dirty.add(r);
+    }
+    
+    private synchronized Rectangle takeDirty() {
+        Rectangle r = dirty;
+        dirty = null;
+        return r;
+    }
 }
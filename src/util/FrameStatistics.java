@@ -0,0 +1,63 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Definiert eine Messreihe von Frame-Dauern, aus der Perzentile bestimmt
+ * werden können, sodass Ruckler unter Last sichtbar werden, die im
+ * Mittelwert untergehen würden.
+ * Gehalten werden nur die letzten Messwerte in einem Ringpuffer fester
+ * Größe. Die Methoden können von beliebigen Threads aufgerufen werden.
+ */
+public class FrameStatistics {
+    private final double[] samples; // Ringpuffer in Millisekunden
+    private long count = 0; // Anzahl aller bisherigen Messwerte
+    
+    /**
+     * Erzeugt eine neue, leere Messreihe.
+     * 
+     * @param capacity Anzahl der zu haltenden Messwerte
+     */
+    public FrameStatistics(int capacity) {
+        samples = new double[capacity];
+    }
+    
+    /**
+     * Fügt einen Messwert hinzu und verdrängt ggf. den ältesten.
+     * 
+     * @param milliseconds Dauer in Millisekunden
+     */
+    public synchronized void add(double milliseconds) {
+        samples[(int)(count % samples.length)] = milliseconds;
+        ++count;
+    }
+    
+    /**
+     * @return Anzahl aller bisherigen Messwerte
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+    
+    /**
+     * Bestimmt das angegebene Perzentil der gehaltenen Messwerte nach dem
+     * Verfahren des nächstgelegenen Ranges.
+     * 
+     * @param p Perzentil zwischen 0 und 1
+     * @return Dauer in Millisekunden oder NaN, sofern noch nicht gemessen
+     * wurde
+     */
+    public double getPercentile(double p) {
+        double[] s;
+        
+        synchronized (this) {
+            s = Arrays.copyOf(samples, (int)Math.min(count, samples.length));
+        }
+        
+        if (s.length == 0) return Double.NaN;
+        
+        Arrays.sort(s);
+        int i = (int)Math.ceil(p * s.length) - 1;
+        return s[Math.max(0, Math.min(s.length - 1, i))];
+    }
+}
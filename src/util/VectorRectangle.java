@@ -150,6 +150,27 @@ public class VectorRectangle {
     public VectorRectangle scale(Vector origin, double factor) {
         return new VectorRectangle(min.scale(origin, factor), max.scale(origin, factor));
     }
+    
+	/**
+	 * Prüft, ob der angegebene Punkt im Rechteck liegt.
+	 * @param v Punkt
+	 * @return true sofern der Punkt im Rechteck oder auf seinem Rand liegt
+	 */
+    public boolean contains(Vector v) {
+        return min.getX() <= v.getX() && v.getX() <= max.getX()
+            && min.getY() <= v.getY() && v.getY() <= max.getY();
+    }
+    
+	/**
+	 * Berechnet den Flächeninhalt der Schnittmenge mit einem anderen Rechteck.
+	 * @param r anderes Rechteck
+	 * @return Flächeninhalt, 0 sofern sich die Rechtecke nicht überschneiden
+	 */
+    public double getIntersectionArea(VectorRectangle r) {
+        double w = Math.min(max.getX(), r.max.getX()) - Math.max(min.getX(), r.min.getX());
+        double h = Math.min(max.getY(), r.max.getY()) - Math.max(min.getY(), r.min.getY());
+        return w > 0 && h > 0 ? w * h : 0;
+    }
 
     @Override
     public String toString() {